@@ -16,9 +16,45 @@ public abstract class OnlineModel implements IModel {
 
     public abstract Object score(Object[] instance);
     public abstract void addInstance(Object[] instance);
+
+    /**
+     * Score a pre-encoded instance, see {@link #encode(Object[], double[])}.
+     * @param values attribute values indexed by {@code Attribute#index()}, the class slot is ignored
+     * @return the class index for a decision tree, the target value for a regression tree
+     */
+    public abstract double scoreEncoded(double[] values);
+
+    /**
+     * Train on a pre-encoded instance, see {@link #encode(Object[], double[])}.
+     * @param values attribute values indexed by {@code Attribute#index()}, the class slot is ignored
+     * @param classValue the class index for a decision tree, the target value for a regression tree
+     */
+    public abstract void addInstanceEncoded(double[] values, double classValue);
+
     public abstract OnlineModel getTrainingModel();
     public abstract OnlineModel getScoringModel();
     public abstract String debug();
     public abstract String info();
     public abstract Map<String, Double> getProfilerResult();
+
+    /**
+     * Encode a raw instance into attribute values, so that it could be reused by
+     * {@link #scoreEncoded(double[])} and {@link #addInstanceEncoded(double[], double)}.
+     * @param instance raw values in attribute order
+     * @param values encoded values, at least as long as the given instance
+     */
+    public void encode(Object[] instance, double[] values) {
+        encode(instance, values, true);
+    }
+
+    /**
+     * @param instance raw values in attribute order
+     * @param values encoded values, at least as long as the given instance
+     * @param grow false for an instance to score only, see {@link Attribute#value(Object, boolean)}
+     */
+    public void encode(Object[] instance, double[] values, boolean grow) {
+        for (int i = 0; i < instance.length; i++) {
+            values[i] = attributes.get(i).value(instance[i], grow);
+        }
+    }
 }
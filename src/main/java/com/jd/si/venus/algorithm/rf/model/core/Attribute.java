@@ -7,14 +7,33 @@ import java.util.*;
  * Attribute meta
  */
 public class Attribute implements Serializable {
+    /**
+     * Indexed id of a value unknown to a growable attribute, when it is looked up without appending it.
+     * It is beyond every branch of a split, see {@link #value(Object, boolean)}.
+     */
+    public static final int UNKNOWN_VALUE = Integer.MAX_VALUE;
+
+    /**
+     * How the values of a numeric attribute are summarized in tree statistics.
+     * RAW keeps every distinct value, the others are bounded by numBins.
+     * QUANTILE keeps exact statistics of value ranges holding about the same number of instances.
+     */
+    public enum NumSummary {RAW, EQUAL_WIDTH, GAUSSIAN, HISTOGRAM, QUANTILE}
+
     private int index;
     private String name;
     private boolean isCont;
     private List<String> distValList;
-    private Map<String, Integer> val2Idxs;
+    private StringDictionary val2Idxs;
     private boolean isTarget;
+    // if true, unseen discrete values are appended instead of rejected
+    private boolean growable = false;
     private String distDefault = "";
     private double numDefault = 0.0;
+    private NumSummary numSummary = NumSummary.RAW;
+    private int numBins = 32;
+    // if true, a split on this discrete attribute has two branches, each with a subset of the values
+    private boolean binarySplit = false;
     
     /**
      * Init default value for Discrete Attribute.
@@ -57,7 +76,7 @@ public class Attribute implements Serializable {
                 distValList.add(distVals[i]);
             }
             Collections.sort(distValList);
-            val2Idxs = new HashMap<String, Integer>();
+            val2Idxs = new StringDictionary(distValList.size());
             for (int i = 0; i < distValList.size(); i++) {
                 val2Idxs.put(distValList.get(i), i);
             }
@@ -85,6 +104,43 @@ public class Attribute implements Serializable {
     	return numDefault;
     }
         
+    public NumSummary getNumSummary() {
+        return numSummary;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * Statistics created after this call summarize the attribute with the given summary.
+     * @param numSummary
+     * @param numBins the number of bins or split candidates, ignored by RAW
+     */
+    public void setNumSummary(NumSummary numSummary, int numBins) {
+        if (!isCont) {
+            throw new RuntimeException("Can not set numeric summary for a discrete attribute.");
+        }
+        this.numSummary = numSummary;
+        this.numBins = numBins;
+    }
+
+    public boolean isBinarySplit() {
+        return binarySplit;
+    }
+
+    /**
+     * Splits made after this call send a subset of the values to the first branch, and all other values,
+     * including the ones appended later, to the second branch, instead of a branch per value.
+     * @param binarySplit
+     */
+    public void setBinarySplit(boolean binarySplit) {
+        if (binarySplit && (isCont || isTarget)) {
+            throw new RuntimeException("Only a discrete non target attribute could be split into subsets.");
+        }
+        this.binarySplit = binarySplit;
+    }
+
     public String value(int index) {
         if (isCont) {
             throw new RuntimeException("Can not get discrete value for a numeric attribute.");
@@ -96,22 +152,92 @@ public class Attribute implements Serializable {
         if (isCont) {
             throw new RuntimeException("Can not get indexed id for a numeric attribute.");
         }
-        return val2Idxs.get(value);
+        return index(value, StringDictionary.hash(value));
+    }
+
+    /**
+     * @param value
+     * @param hash hash of the value, see {@link StringDictionary#hash(String)}
+     * @return indexed id of the value
+     */
+    public int index(String value, int hash) {
+        return index(value, hash, true);
+    }
+
+    /**
+     * @param value
+     * @param hash hash of the value, see {@link StringDictionary#hash(String)}
+     * @param grow whether an unseen value is appended to a growable attribute, or gets {@link #UNKNOWN_VALUE}
+     * @return indexed id of the value
+     */
+    public int index(String value, int hash, boolean grow) {
+        int idx = val2Idxs.get(value, hash);
+        if (idx < 0) {
+            if (!growable) {
+                throw new RuntimeException("Unknown value " + value + " for discrete attribute " + name + ".");
+            }
+            idx = grow ? addValue(value) : UNKNOWN_VALUE;
+        }
+        return idx;
+    }
+
+    /**
+     * Append a new discrete value, existing values keep their indexed ids.
+     * @param value
+     * @return indexed id of the new value
+     */
+    protected int addValue(String value) {
+        int idx = val2Idxs.get(value);
+        if (idx < 0) {
+            idx = distValList.size();
+            distValList.add(value);
+            val2Idxs.put(value, idx);
+        }
+        return idx;
+    }
+
+    public boolean isGrowable() {
+        return growable;
+    }
+
+    /**
+     * In growable mode, unseen discrete values get new indexed ids at the end instead of failing while
+     * training. Scoring does not append values, it gives unseen values {@link #UNKNOWN_VALUE}.
+     *
+     * The attribute meta is shared by the training and scoring models, and appending a value is not
+     * thread safe. A growable attribute must not be used by another thread while training.
+     * @param growable
+     */
+    public void setGrowable(boolean growable) {
+        if (growable && (isCont || isTarget)) {
+            throw new RuntimeException("Only a discrete non target attribute could be growable.");
+        }
+        this.growable = growable;
     }
 
     public double value(Object o) {
+        return value(o, true);
+    }
+
+    /**
+     * @param o raw value
+     * @param grow true while training, false while scoring, see {@link #index(String, int, boolean)}
+     * @return encoded value
+     */
+    public double value(Object o, boolean grow) {
     	// Deal with null values
     	if (o == null) {
     		if (isCont) {
     			return getNumDefault();
     		} else {
-    			return index(getDistDefault());
+    			return index(getDistDefault(), StringDictionary.hash(getDistDefault()), grow);
     		}
     	} else {
 		    if (isCont) {
 		        return (Double) o;
 		    } else {
-		        return index((String) o);
+		        String value = (String) o;
+		        return index(value, StringDictionary.hash(value), grow);
 		    }
     	}
     }
@@ -138,6 +264,7 @@ public class Attribute implements Serializable {
                 ", distValList=" + distValList +
                 ", val2Idxs=" + val2Idxs +
                 ", isTarget=" + isTarget +
+                ", growable=" + growable +
                 '}';
     }
 }
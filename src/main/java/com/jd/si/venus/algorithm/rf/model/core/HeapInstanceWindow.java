@@ -0,0 +1,40 @@
+package com.jd.si.venus.algorithm.rf.model.core;
+
+import java.io.Serializable;
+
+/**
+ * An instance window kept on the heap: the rows in one primitive array, and the ids in another.
+ */
+public class HeapInstanceWindow extends InstanceWindow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Encoded values, rows[slot * numAttributes + attribute index]. */
+    protected double[] rows;
+    protected int[] ids;
+
+    public HeapInstanceWindow(int numAttributes, int capacity) {
+        super(numAttributes, capacity);
+        if ((long) numAttributes * capacity > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("Window of " + capacity + " rows of " + numAttributes +
+                    " attributes does not fit in one array.");
+        }
+        this.rows = new double[numAttributes * capacity];
+        this.ids = new int[capacity];
+    }
+
+    @Override
+    protected void write(int slot, double[] values, int id) {
+        System.arraycopy(values, 0, rows, slot * numAttributes, numAttributes);
+        ids[slot] = id;
+    }
+
+    @Override
+    protected void read(int slot, double[] values) {
+        System.arraycopy(rows, slot * numAttributes, values, 0, numAttributes);
+    }
+
+    @Override
+    protected int readId(int slot) {
+        return ids[slot];
+    }
+}
@@ -16,6 +16,17 @@ public class Instance implements Serializable {
     private double[] values;
 
     public Instance(List<Attribute> attributes, Object[] oValues, Attribute classAttr) {
+        this(attributes, oValues, classAttr, true);
+    }
+
+    /**
+     * @param attributes
+     * @param oValues raw values
+     * @param classAttr
+     * @param grow false for an instance to score, so that its unseen values are not appended to
+     *             growable attributes, see {@link Attribute#value(Object, boolean)}
+     */
+    public Instance(List<Attribute> attributes, Object[] oValues, Attribute classAttr, boolean grow) {
         this.attributes = attributes;
         this.classAttr = classAttr;
 
@@ -24,7 +35,7 @@ public class Instance implements Serializable {
         // training case
         if (attributes.size() == oValues.length) {
             for (int i = 0; i < attributes.size(); i++) {
-                this.values[i] = attributes.get(i).value(oValues[i]);
+                this.values[i] = attributes.get(i).value(oValues[i], grow);
             }
         }
         // scoring case
@@ -34,7 +45,7 @@ public class Instance implements Serializable {
                     continue;
                 }
 
-                this.values[j] = attributes.get(j).value(oValues[j]);
+                this.values[j] = attributes.get(j).value(oValues[j], grow);
             }
         } else {
             StringBuilder ret = new StringBuilder();
@@ -46,6 +57,26 @@ public class Instance implements Serializable {
         }
     }
 
+    /**
+     * Wrap encoded values without copying them.
+     * @param attributes
+     * @param values values indexed by {@code Attribute#index()}
+     * @param classAttr
+     */
+    public Instance(List<Attribute> attributes, double[] values, Attribute classAttr) {
+        this.attributes = attributes;
+        this.classAttr = classAttr;
+        this.values = values;
+    }
+
+    /**
+     * Point this instance to other encoded values, so that one instance could be reused.
+     * @param values values indexed by {@code Attribute#index()}
+     */
+    public void setValues(double[] values) {
+        this.values = values;
+    }
+
     public boolean hasMissingValue() {
         return false;
     }
@@ -63,7 +94,14 @@ public class Instance implements Serializable {
     }
 
     public double value(int index) {
-        return value(index);
+        return values[index];
+    }
+
+    /**
+     * @return the encoded values indexed by {@code Attribute#index()}
+     */
+    public double[] getValues() {
+        return values;
     }
 
     public double value(Attribute attr) {
@@ -0,0 +1,137 @@
+package com.jd.si.venus.algorithm.rf.model.core;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A batch of encoded instances stored column by column.
+ *
+ * The batch keeps its arrays after {@link #clear()}, so one batch could be refilled and
+ * reused across calls without allocating per instance.
+ */
+public class InstanceBatch implements Serializable {
+    protected List<Attribute> attributes;
+    protected Attribute classAttr;
+
+    /** Encoded values, columns[attribute index][row]. */
+    protected double[][] columns;
+    protected int size;
+
+    public InstanceBatch(List<Attribute> attributes, Attribute classAttr, int capacity) {
+        this.attributes = attributes;
+        this.classAttr = classAttr;
+        this.columns = new double[attributes.size()][capacity];
+        this.size = 0;
+    }
+
+    public List<Attribute> getAttributes() {
+        return attributes;
+    }
+
+    public Attribute getClassAttribute() {
+        return classAttr;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return columns.length == 0 ? 0 : columns[0].length;
+    }
+
+    /**
+     * Drop all instances but keep the allocated columns.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add a raw instance, encoding its values with the attribute meta.
+     * @param instance raw values in attribute order
+     */
+    public void add(Object[] instance) {
+        add(instance, true);
+    }
+
+    /**
+     * @param instance raw values in attribute order
+     * @param grow false for a batch to score only, see {@link Attribute#value(Object, boolean)}
+     */
+    public void add(Object[] instance, boolean grow) {
+        ensureCapacity(size + 1);
+        for (int i = 0; i < instance.length; i++) {
+            columns[i][size] = attributes.get(i).value(instance[i], grow);
+        }
+        size++;
+    }
+
+    /**
+     * Add an encoded instance.
+     * @param values values indexed by {@code Attribute#index()}, the class slot is ignored
+     * @param classValue
+     */
+    public void addEncoded(double[] values, double classValue) {
+        ensureCapacity(size + 1);
+        int numValues = Math.min(values.length, columns.length);
+        for (int i = 0; i < numValues; i++) {
+            columns[i][size] = values[i];
+        }
+        columns[classAttr.index()][size] = classValue;
+        size++;
+    }
+
+    public double value(int row, int attrIndex) {
+        return columns[attrIndex][row];
+    }
+
+    public double classValue(int row) {
+        return columns[classAttr.index()][row];
+    }
+
+    /**
+     * @param attrIndex
+     * @return the column of the given attribute, only the first {@link #size()} values are valid
+     */
+    public double[] getColumn(int attrIndex) {
+        return columns[attrIndex];
+    }
+
+    public double[][] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Copy one instance into the given values.
+     * @param row
+     * @param values values indexed by {@code Attribute#index()}
+     */
+    public void getRow(int row, double[] values) {
+        int numValues = Math.min(values.length, columns.length);
+        for (int i = 0; i < numValues; i++) {
+            values[i] = columns[i][row];
+        }
+    }
+
+    protected void ensureCapacity(int capacity) {
+        // attributes could be added to the model after the batch is created
+        if (columns.length < attributes.size()) {
+            double[][] newColumns = new double[attributes.size()][];
+            System.arraycopy(columns, 0, newColumns, 0, columns.length);
+            for (int i = columns.length; i < newColumns.length; i++) {
+                newColumns[i] = new double[capacity()];
+            }
+            columns = newColumns;
+        }
+
+        if (capacity > capacity()) {
+            int newCapacity = Math.max(capacity, capacity() * 2);
+            for (int i = 0; i < columns.length; i++) {
+                double[] column = new double[newCapacity];
+                System.arraycopy(columns[i], 0, column, 0, size);
+                columns[i] = column;
+            }
+        }
+    }
+}
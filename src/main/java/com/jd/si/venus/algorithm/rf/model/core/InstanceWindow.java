@@ -0,0 +1,106 @@
+package com.jd.si.venus.algorithm.rf.model.core;
+
+import java.io.Serializable;
+
+/**
+ * A first in first out window of encoded instances, each tagged with an id.
+ *
+ * The rows are kept in a ring of capacity slots, so adding and removing never allocates.
+ * The storage of the slots is left to the subclasses.
+ */
+public abstract class InstanceWindow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected int numAttributes;
+    protected int capacity;
+    // slot of the oldest row
+    protected int head;
+    protected int size;
+
+    public InstanceWindow(int numAttributes, int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("Window capacity must be positive, given " + capacity);
+        }
+        this.numAttributes = numAttributes;
+        this.capacity = capacity;
+        this.head = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Append a row.
+     * @param values encoded values indexed by {@code Attribute#index()}
+     * @param id
+     */
+    public void add(double[] values, int id) {
+        if (size == capacity) {
+            throw new RuntimeException("Window is full, capacity " + capacity);
+        }
+        write((head + size) % capacity, values, id);
+        size++;
+    }
+
+    /**
+     * Drop the oldest row.
+     */
+    public void removeFirst() {
+        if (size == 0) {
+            throw new RuntimeException("Window is empty.");
+        }
+        head = (head + 1) % capacity;
+        size--;
+    }
+
+    /**
+     * @param index 0 for the oldest row
+     * @param values filled with the encoded values of the row
+     */
+    public void getRow(int index, double[] values) {
+        read(slot(index), values);
+    }
+
+    /**
+     * @param index 0 for the oldest row
+     * @return id of the row
+     */
+    public int getId(int index) {
+        return readId(slot(index));
+    }
+
+    /**
+     * Append all rows of this window to another one, oldest first.
+     * @param target
+     */
+    public void copyTo(InstanceWindow target) {
+        double[] values = new double[numAttributes];
+        for (int index = 0; index < size(); index++) {
+            getRow(index, values);
+            target.add(values, getId(index));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getNumAttributes() {
+        return numAttributes;
+    }
+
+    protected int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", window size " + size);
+        }
+        return (head + index) % capacity;
+    }
+
+    protected abstract void write(int slot, double[] values, int id);
+
+    protected abstract void read(int slot, double[] values);
+
+    protected abstract int readId(int slot);
+}
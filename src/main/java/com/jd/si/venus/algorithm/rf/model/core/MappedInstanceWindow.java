@@ -0,0 +1,289 @@
+package com.jd.si.venus.algorithm.rf.model.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An instance window kept in a memory-mapped file, so that its size is not bounded by the heap.
+ *
+ * The file starts with a header holding the layout and the head and size of the ring, followed by
+ * the rows. A row is the id followed by the encoded values, one double each. The rows are mapped in
+ * segments of at most {@link #MAX_SEGMENT_BYTES}, as one mapping cannot exceed 2 GB.
+ *
+ * A new window always starts empty. A deserialized window reopens its file and keeps the rows in it,
+ * so a restored model does not have to refill the window. The file must be the one the window was
+ * saved with, unchanged since: the counts of the model were built from those rows. Restoring from a
+ * file with another layout, or written after the window was saved, fails.
+ */
+public class MappedInstanceWindow extends InstanceWindow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_SEGMENT_BYTES = Integer.MAX_VALUE - 7;
+
+    protected static final long MAGIC = 0x56454e5553574e44L;
+    protected static final int VERSION = 2;
+    protected static final int HEADER_BYTES = 64;
+    protected static final int MAGIC_OFFSET = 0;
+    protected static final int VERSION_OFFSET = 8;
+    protected static final int ORDER_OFFSET = 12;
+    protected static final int NUM_ATTRIBUTES_OFFSET = 16;
+    protected static final int CAPACITY_OFFSET = 20;
+    protected static final int HEAD_OFFSET = 24;
+    protected static final int SIZE_OFFSET = 28;
+    protected static final int NUM_ADDED_OFFSET = 32;
+
+    protected String path;
+    /** Doubles per row, the id and the values. */
+    protected int rowDoubles;
+    protected int rowsPerSegment;
+    /** Rows added since the window was created, telling apart files with the same head and size. */
+    protected long numAdded;
+
+    protected transient RandomAccessFile file;
+    protected transient MappedByteBuffer header;
+    protected transient MappedByteBuffer[] segments;
+    protected transient DoubleBuffer[] segmentDoubles;
+
+    public MappedInstanceWindow(String path, int numAttributes, int capacity) {
+        this(path, numAttributes, capacity, MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param path file of the window, overwritten if it exists
+     * @param numAttributes
+     * @param capacity
+     * @param segmentBytes the maximum bytes of one mapped segment
+     */
+    public MappedInstanceWindow(String path, int numAttributes, int capacity, int segmentBytes) {
+        super(numAttributes, capacity);
+        if ((long) (numAttributes + 1) * 8 > segmentBytes) {
+            throw new RuntimeException("Row of " + numAttributes + " attributes does not fit in a segment of " +
+                    segmentBytes + " bytes.");
+        }
+        this.path = path;
+        this.rowDoubles = numAttributes + 1;
+        this.rowsPerSegment = segmentBytes / (rowDoubles * 8);
+        open(false);
+    }
+
+    @Override
+    public void add(double[] values, int id) {
+        ensureOpen();
+        super.add(values, id);
+        numAdded++;
+        writeState();
+    }
+
+    @Override
+    public void removeFirst() {
+        ensureOpen();
+        super.removeFirst();
+        writeState();
+    }
+
+    @Override
+    protected void write(int slot, double[] values, int id) {
+        DoubleBuffer doubles = getSegment(slot);
+        doubles.position((slot % rowsPerSegment) * rowDoubles);
+        doubles.put(id);
+        doubles.put(values, 0, numAttributes);
+    }
+
+    @Override
+    protected void read(int slot, double[] values) {
+        DoubleBuffer doubles = getSegment(slot);
+        doubles.position((slot % rowsPerSegment) * rowDoubles + 1);
+        doubles.get(values, 0, numAttributes);
+    }
+
+    @Override
+    protected int readId(int slot) {
+        return (int) getSegment(slot).get((slot % rowsPerSegment) * rowDoubles);
+    }
+
+    /**
+     * Write the rows and the state of the window to the file.
+     */
+    public void force() {
+        if (header == null) {
+            return;
+        }
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+    }
+
+    /**
+     * Force and close the file. The file is reopened if the window is used again.
+     */
+    public void close() {
+        if (file == null) {
+            return;
+        }
+        force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close window file " + path, e);
+        } finally {
+            file = null;
+            header = null;
+            segments = null;
+            segmentDoubles = null;
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public int size() {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    protected int slot(int index) {
+        ensureOpen();
+        return super.slot(index);
+    }
+
+    protected DoubleBuffer getSegment(int slot) {
+        return segmentDoubles[slot / rowsPerSegment];
+    }
+
+    /**
+     * Reopen the file after deserializing or closing, before the head and size of the window are used.
+     */
+    protected void ensureOpen() {
+        if (header == null) {
+            open(true);
+        }
+    }
+
+    protected void writeState() {
+        header.putInt(HEAD_OFFSET, head);
+        header.putInt(SIZE_OFFSET, size);
+        header.putLong(NUM_ADDED_OFFSET, numAdded);
+    }
+
+    /**
+     * Map the file of the window.
+     * @param restore whether to keep the rows of the file, after deserializing or closing
+     */
+    protected void open(boolean restore) {
+        try {
+            file = new RandomAccessFile(path, "rw");
+            FileChannel channel = file.getChannel();
+            long fileBytes = HEADER_BYTES + (long) capacity * rowDoubles * 8;
+            boolean existing = channel.size() >= fileBytes;
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            int numSegments = (capacity + rowsPerSegment - 1) / rowsPerSegment;
+            segments = new MappedByteBuffer[numSegments];
+            segmentDoubles = new DoubleBuffer[numSegments];
+            for (int segment = 0; segment < numSegments; segment++) {
+                long start = HEADER_BYTES + (long) segment * rowsPerSegment * rowDoubles * 8;
+                int rows = Math.min(rowsPerSegment, capacity - segment * rowsPerSegment);
+                segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) rows * rowDoubles * 8);
+                segments[segment].order(ByteOrder.nativeOrder());
+                segmentDoubles[segment] = segments[segment].asDoubleBuffer();
+            }
+
+            if (restore) {
+                restoreState(existing);
+            } else {
+                head = 0;
+                size = 0;
+                numAdded = 0;
+                writeHeader();
+            }
+        } catch (IOException e) {
+            release();
+            throw new RuntimeException("Failed to map window file " + path, e);
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the file without forcing it, after it failed to open.
+     */
+    protected void release() {
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            // the file failed to open already
+        } finally {
+            file = null;
+            header = null;
+            segments = null;
+            segmentDoubles = null;
+        }
+    }
+
+    /**
+     * Keep the rows of the file if it is the file the window was saved with, unchanged since.
+     * Otherwise the counts of the model no longer match the rows, and expiring the rows would
+     * corrupt them.
+     */
+    protected void restoreState(boolean existing) {
+        if (!existing || header.getLong(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION
+                || header.getInt(ORDER_OFFSET) != getOrderFlag()
+                || header.getInt(NUM_ATTRIBUTES_OFFSET) != numAttributes
+                || header.getInt(CAPACITY_OFFSET) != capacity) {
+            throw new RuntimeException("Window file " + path + " does not have the layout of the window, " +
+                    "it is not the file the window was saved with.");
+        }
+
+        int fileHead = header.getInt(HEAD_OFFSET);
+        int fileSize = header.getInt(SIZE_OFFSET);
+        long fileAdded = header.getLong(NUM_ADDED_OFFSET);
+        if (fileHead != head || fileSize != size || fileAdded != numAdded) {
+            throw new RuntimeException("Window file " + path + " was written after the window was saved, it has " +
+                    fileSize + " rows from slot " + fileHead + " after " + fileAdded + " added instead of " +
+                    size + " rows from slot " + head + " after " + numAdded + " added.");
+        }
+    }
+
+    protected void writeHeader() {
+        header.putLong(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(ORDER_OFFSET, getOrderFlag());
+        header.putInt(NUM_ATTRIBUTES_OFFSET, numAttributes);
+        header.putInt(CAPACITY_OFFSET, capacity);
+        writeState();
+    }
+
+    /**
+     * The file is forced, so that it matches the saved window.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        force();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * The file is reopened right away, so that a file which does not match fails the restore.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        open(true);
+    }
+
+    private static int getOrderFlag() {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 1 : 0;
+    }
+}
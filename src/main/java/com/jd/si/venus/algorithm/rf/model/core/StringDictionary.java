@@ -0,0 +1,119 @@
+package com.jd.si.venus.algorithm.rf.model.core;
+
+import java.io.Serializable;
+
+/**
+ * An open addressing map from string to a non negative int index.
+ *
+ * Keys, hashes and indexes are kept in parallel arrays and probed linearly, so lookups
+ * don't box the index. Callers which hash their keys up front could use {@link #get(String, int)}
+ * with {@link #hash(String)}.
+ */
+public class StringDictionary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] indexes;
+    private int size;
+    private int mask;
+
+    public StringDictionary(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the index of the key, -1 if the key is unknown
+     */
+    public int get(String key) {
+        return get(key, hash(key));
+    }
+
+    /**
+     * @param key
+     * @param hash hash of the key, see {@link #hash(String)}
+     * @return the index of the key, -1 if the key is unknown
+     */
+    public int get(String key, int hash) {
+        int slot = hash & mask;
+        String slotKey;
+        while ((slotKey = keys[slot]) != null) {
+            if (hashes[slot] == hash && (slotKey == key || slotKey.equals(key))) {
+                return indexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    public void put(String key, int index) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+
+        int hash = hash(key);
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && keys[slot].equals(key)) {
+                indexes[slot] = index;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        hashes[slot] = hash;
+        indexes[slot] = index;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        indexes = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldIndexes[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                if (ret.length() > 1) {
+                    ret.append(", ");
+                }
+                ret.append(keys[i]).append("=").append(indexes[i]);
+            }
+        }
+        ret.append("}");
+
+        return ret.toString();
+    }
+}
@@ -3,14 +3,18 @@ package com.jd.si.venus.algorithm.rf.model.tree;
 
 import com.jd.si.venus.algorithm.rf.model.OnlineModel;
 import com.jd.si.venus.algorithm.rf.model.core.Attribute;
+import com.jd.si.venus.algorithm.rf.model.core.HeapInstanceWindow;
 import com.jd.si.venus.algorithm.rf.model.core.Instance;
-import com.jd.si.venus.algorithm.rf.model.core.InstanceId;
+import com.jd.si.venus.algorithm.rf.model.core.InstanceWindow;
+import com.jd.si.venus.algorithm.rf.model.core.MappedInstanceWindow;
 import com.jd.si.venus.algorithm.rf.model.tree.profiler.AbstractProfiler;
 import com.jd.si.venus.algorithm.rf.model.tree.profiler.CVFDTProfiler;
 import com.jd.si.venus.algorithm.rf.model.tree.split.Split;
 import com.jd.si.venus.algorithm.rf.model.tree.node.CNode;
+import com.jd.si.venus.algorithm.rf.model.tree.node.PathWindow;
 import com.jd.si.venus.algorithm.rf.model.tree.node.VNode;
 
+import java.io.File;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -24,15 +28,43 @@ public class CVFDT extends VFDT
     private static final long serialVersionUID = 1L;
 
     /**
-     * Linked list of instances currently inside the CVFDT learning window.
+     * Encoded instances currently inside the CVFDT learning window, each tagged with the largest node id
+     * when it arrived. Created with the first instance.
      */
-    protected LinkedList<InstanceId> window = new LinkedList<InstanceId>();
+    protected InstanceWindow window;
+
+    // reused to read the rows of the window
+    protected transient Instance windowInstance;
+    protected transient double[] windowValues;
+
+    // reused to collect the nodes reached by an instance which are in test mode, and the leaves
+    protected transient List<CNode> testNodes;
+    protected transient List<CNode> reachedLeaves;
+    protected transient List<CNode> reachedNodes;
 
     /**
      * The maximum size of the window list.
      */
     protected int windowSize = 200000;
 
+    /**
+     * File of a memory-mapped window, null to keep the window on the heap.
+     */
+    protected String windowPath;
+
+    /**
+     * Whether to keep the nodes each instance of the window incremented, to decrement them
+     * without routing the instance again when it expires.
+     */
+    protected boolean cacheWindowPaths = true;
+
+    protected transient PathWindow windowPaths;
+
+    /**
+     * If greater than 0, number of consecutive split rechecks without alternative trees to freeze a node.
+     */
+    protected int freezeQuietRechecks = 0;
+
     /**
      * The number of data instances between rechecks of the validity of all
      * alternative trees. This is a global count on instances (see
@@ -40,6 +72,28 @@ public class CVFDT extends VFDT
      */
     protected int splitRecheckInterval = 50000;
 
+    /**
+     * In a lazy mode, the fraction of the split recheck interval before a recheck over which the internal
+     * nodes due are populated from the window, a part of the window with every instance. 0 populates
+     * them all at once at the recheck.
+     */
+    protected double populatePeriod = 0.1;
+
+    // internal nodes being populated for the next recheck in a lazy mode
+    protected List<CNode> populatingNodes = new ArrayList<CNode>();
+    // the instances of the window [populateCursor, populateEnd) are still to be populated
+    protected int populateCursor;
+    protected int populateEnd;
+    // position of the path of the instance at populateCursor in the cached paths
+    protected transient int populatePosition;
+
+    // leaves reactivated by the memory budget, populated from the window [reactivateCursor, reactivateEnd)
+    // a part with every instance, and not checked for a split until then
+    protected Set<VNode> reactivatingLeaves = Collections.newSetFromMap(new IdentityHashMap<VNode, Boolean>());
+    protected int reactivateCursor;
+    protected int reactivateEnd;
+    protected transient int reactivatePosition;
+
     /**
      * Every altTestModeInterval instances, CNodes enter a test state where they
      * use the next altTestModeDuration instances to evaluate whether or not
@@ -93,9 +147,77 @@ public class CVFDT extends VFDT
         return windowSize;
     }
 
+    /**
+     * A window in use is moved to a new one with the given capacity, or its current size if greater.
+     * The rows over the window size are dropped by the next instances.
+     */
     public void setWindowSize(int windowSize)
     {
+        if (window instanceof MappedInstanceWindow && window.getCapacity() != windowSize) {
+            throw new RuntimeException("It is not supported to resize a memory-mapped window in use.");
+        }
         this.windowSize = windowSize;
+        if (window != null && window.getCapacity() != windowSize) {
+            InstanceWindow resized = createWindow(Math.max(windowSize, window.size()));
+            window.copyTo(resized);
+            window = resized;
+        }
+    }
+
+    public String getWindowPath() {
+        return windowPath;
+    }
+
+    /**
+     * Keep the window in a memory-mapped file at the given path, overwriting the file. A window in use
+     * is moved to the file, and the file it was in is closed. The window of a deserialized model reopens
+     * its file with the rows in it.
+     * @param windowPath file of the window, null to keep the window on the heap
+     */
+    public void setWindowPath(String windowPath) {
+        if (window instanceof MappedInstanceWindow && windowPath != null
+                && new File(windowPath).getAbsoluteFile().equals(
+                        new File(((MappedInstanceWindow) window).getPath()).getAbsoluteFile())) {
+            // already in the file, which would be overwritten while being copied
+            this.windowPath = windowPath;
+            return;
+        }
+
+        this.windowPath = windowPath;
+        if (window != null) {
+            InstanceWindow moved = createWindow(window.getCapacity());
+            window.copyTo(moved);
+            if (window instanceof MappedInstanceWindow) {
+                ((MappedInstanceWindow) window).close();
+            }
+            window = moved;
+        }
+    }
+
+    protected InstanceWindow getWindow() {
+        if (window == null) {
+            window = createWindow(windowSize);
+        }
+        return window;
+    }
+
+    protected InstanceWindow createWindow(int capacity) {
+        if (windowPath != null) {
+            return new MappedInstanceWindow(windowPath, attributes.size(), capacity);
+        }
+        return new HeapInstanceWindow(attributes.size(), capacity);
+    }
+
+    /**
+     * @return the reused instance holding the values of the row of the window
+     */
+    protected Instance getWindowInstance(int index) {
+        if (windowInstance == null) {
+            windowValues = new double[attributes.size()];
+            windowInstance = new Instance(attributes, windowValues, classAttribute);
+        }
+        window.getRow(index, windowValues);
+        return windowInstance;
     }
 
     public int getSplitRecheckInterval()
@@ -108,6 +230,17 @@ public class CVFDT extends VFDT
         this.splitRecheckInterval = splitRecheckInterval;
     }
 
+    public double getPopulatePeriod() {
+        return populatePeriod;
+    }
+
+    /**
+     * @param populatePeriod fraction of the split recheck interval, from 0 to 1
+     */
+    public void setPopulatePeriod(double populatePeriod) {
+        this.populatePeriod = populatePeriod;
+    }
+
     public int getTestInterval()
     {
         return testInterval;
@@ -128,6 +261,93 @@ public class CVFDT extends VFDT
         this.testDuration = testDuration;
     }
 
+    /**
+     * Not supported, every CVFDT instance also updates the window and the alternative trees.
+     */
+    @Override
+    public void setMiniBatchSize(int miniBatchSize) {
+        if (miniBatchSize > 0) {
+            throw new RuntimeException("Mini batch training is not supported by CVFDT.");
+        }
+    }
+
+    public int getFreezeQuietRechecks() {
+        return freezeQuietRechecks;
+    }
+
+    /**
+     * Freeze an internal node when it had no alternative trees for the given number of consecutive
+     * split rechecks. A frozen node releases its attribute statistics and its split is not rechecked
+     * any more; it keeps routing, counting and testing. Its subtree is still rechecked.
+     *
+     * @param freezeQuietRechecks 0 to never freeze
+     */
+    public void setFreezeQuietRechecks(int freezeQuietRechecks) {
+        this.freezeQuietRechecks = freezeQuietRechecks;
+    }
+
+    /**
+     * Not supported, the statistics of a leaf are kept to recheck its split once it is an internal node.
+     */
+    @Override
+    public void setRemovePoorAttributes(boolean removePoorAttributes) {
+        if (removePoorAttributes) {
+            throw new RuntimeException("Poor attribute removal is not supported by CVFDT.");
+        }
+    }
+
+    /**
+     * Not supported, alternative trees are grown from the statistics of internal nodes.
+     */
+    @Override
+    public void setAsyncSplitCheck(boolean asyncSplitCheck) {
+        if (asyncSplitCheck) {
+            throw new RuntimeException("Async split check is not supported by CVFDT.");
+        }
+    }
+
+    /**
+     * Not supported, the count of a leaf is the number of its instances in the window, which stops
+     * growing once the window is full, so a check scheduled at a higher count might never come.
+     */
+    @Override
+    public void setAdaptiveGracePeriod(boolean adaptiveGracePeriod) {
+        if (adaptiveGracePeriod) {
+            throw new RuntimeException("Adaptive grace period is not supported by CVFDT.");
+        }
+    }
+
+    /**
+     * Not supported, the instances rolling off the window break the bound of the cached scores.
+     */
+    @Override
+    public void setCacheSplitScores(boolean cacheSplitScores) {
+        if (cacheSplitScores) {
+            throw new RuntimeException("Split score caching is not supported by CVFDT.");
+        }
+    }
+
+    public boolean isCacheWindowPaths() {
+        return cacheWindowPaths;
+    }
+
+    /**
+     * The cached paths take a reference per node reached by every instance of the window, which
+     * could be turned off for a large memory-mapped window.
+     */
+    public void setCacheWindowPaths(boolean cacheWindowPaths) {
+        this.cacheWindowPaths = cacheWindowPaths;
+        if (!cacheWindowPaths) {
+            windowPaths = null;
+        }
+    }
+
+    /**
+     * In a lazy mode, internal nodes keep no attribute statistics. Before every split recheck they
+     * are populated from the window, for the internal nodes which had at least nMin instances since
+     * their last recheck only, and dropped again after the recheck.
+     * @see #setPopulatePeriod(double)
+     */
     public void setLazyMode(boolean lazyMode) {
         if (lazyMode) {
             statMode = StatMode.LAZY;
@@ -169,26 +389,41 @@ public class CVFDT extends VFDT
             }
         }
         try {
-            // update the counts associated with this instance
+            // update the counts and the test counts associated with this instance in one pass,
+            // collecting the nodes to test and the leaves reached
             // unlike VFDTProfiler, we start at the root because we will reach multiple
             // leaf nodes in the various alternative trees
-            traverseAndIncrementCounts(instance, getRoot());
+            if (testNodes == null) {
+                testNodes = new ArrayList<CNode>();
+                reachedLeaves = new ArrayList<CNode>();
+                reachedNodes = new ArrayList<CNode>();
+            }
+            testNodes.clear();
+            reachedLeaves.clear();
+            reachedNodes.clear();
+            traverseAndUpdate(instance, getRoot());
 
             // add the new instance to the window and remove old instance (if necessary)
             updateWindow(instance);
 
-            // split nodes with attributes which have surpassed the hoeffding bound
-            // and/or test the alternative subtrees for nodes in test mode
-            traverseAndSplitOrTest(instance, getRoot());
+            // test the alternative subtrees for nodes in test mode, and split leaves with attributes
+            // which have surpassed the hoeffding bound, once the counts are up to date
+            testAndSplit(instance);
 
             // check whether new alternative nodes should be created
-            if (++splitValidityCounter % splitRecheckInterval == 0) {
-                if (statMode == StatMode.LAZY) {
-                    populateStats();
-                }
-
+            ++splitValidityCounter;
+            if (statMode == StatMode.LAZY) {
+                populateStats();
+            }
+            if (!reactivatingLeaves.isEmpty()) {
+                populateReactivatedLeaves((reactivateEnd + nMin - 1) / Math.max(1, nMin));
+            }
+            if (splitValidityCounter % splitRecheckInterval == 0) {
                 traverseAndCheckSplitValidity(instance, getRoot());
+                finishPopulation();
             }
+
+            checkMemoryBudget(1);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -197,15 +432,197 @@ public class CVFDT extends VFDT
     }
 
     /**
-     * If in a lazy mode, all internal nodes don't keep any statistics until we use it.
+     * Alternative trees are included, their statistics count to the budget as well.
+     */
+    @Override
+    protected long collectLeaves(VNode node, List<VNode> leaves) {
+        long size = super.collectLeaves(node, leaves);
+        for (CNode alt : ((CNode) node).getAlternativeTrees()) {
+            size += collectLeaves(alt, leaves);
+        }
+        return size;
+    }
+
+    /**
+     * Unlike VFDT, the counts of a reactivated leaf are kept and its attribute statistics
+     * are populated from the instances of the window which reach it. So that no instance stalls
+     * for the whole window, a part of the window is populated with every instance, the whole
+     * window over nMin instances. The leaves count the new instances meanwhile, and are checked
+     * for a split once populated.
+     */
+    @Override
+    protected void reactivateLeaves(List<VNode> leaves) {
+        // the leaves reactivated before are populated first
+        finishReactivation();
+
+        CVFDTProfiler profiler = getProfiler();
+        for (VNode leaf : leaves) {
+            leaf.activate();
+            reactivatingLeaves.add(leaf);
+            profiler.addReactivation();
+        }
+        reactivateCursor = 0;
+        reactivateEnd = getWindow().size();
+        reactivatePosition = 0;
+    }
+
+    protected void finishReactivation() {
+        populateReactivatedLeaves(reactivateEnd - reactivateCursor);
+        reactivatingLeaves.clear();
+    }
+
+    /**
+     * Populate the reactivated leaves with the next instances of the window, from their cached
+     * paths, or routed through the tree for the instances without a path.
+     */
+    protected void populateReactivatedLeaves(int numInstances) {
+        InstanceWindow window = getWindow();
+        int firstCached = windowPaths == null ? window.size() : window.size() - windowPaths.size();
+        int end = Math.min(reactivateEnd, reactivateCursor + numInstances);
+        for (; reactivateCursor < end; reactivateCursor++) {
+            Instance instance = getWindowInstance(reactivateCursor);
+            int id = window.getId(reactivateCursor);
+            if (reactivateCursor < firstCached) {
+                traverseAndPopulateLeaves(instance, id, getRoot(), reactivatingLeaves);
+                continue;
+            }
+
+            int length = windowPaths.getLength(reactivateCursor - firstCached);
+            for (int i = 0; i < length; i++) {
+                CNode node = windowPaths.getNode(reactivatePosition + i);
+                if (node.getId() <= id && !node.isDetached() && reactivatingLeaves.contains(node)) {
+                    node.incrementCounts(instance, StatMode.POPULATE);
+                }
+            }
+            reactivatePosition += length;
+        }
+
+        if (reactivateCursor == reactivateEnd) {
+            reactivatingLeaves.clear();
+        }
+    }
+
+    /**
+     * A reactivated leaf is not checked until its statistics are populated from the whole window.
+     */
+    @Override
+    protected boolean isSplitCheckDue(VNode node, int previousCount) {
+        if (!reactivatingLeaves.isEmpty() && reactivatingLeaves.contains(node)) {
+            return false;
+        }
+        return super.isSplitCheckDue(node, previousCount);
+    }
+
+    protected void traverseAndPopulateLeaves(Instance instance, int id, CNode node, Set<VNode> leaves) {
+        for (CNode alt : node.getAlternativeTrees()) {
+            traverseAndPopulateLeaves(instance, id, alt, leaves);
+        }
+
+        CNode childNode = getChild(instance, node);
+        if (childNode != null) {
+            traverseAndPopulateLeaves(instance, id, childNode, leaves);
+        } else if (node.getId() <= id && leaves.contains(node)) {
+            node.incrementCounts(instance, StatMode.POPULATE);
+        }
+    }
+
+    /**
+     * If in a lazy mode, all internal nodes don't keep any statistics until we use it. Only the
+     * internal nodes due for the next recheck get statistics, a populate period before it. From then
+     * on, they count the new instances, and a part of the window is populated with every instance, so
+     * that the whole window is populated by the recheck.
      */
     protected void populateStats() {
-        CNode root = getRoot();
+        int untilRecheck = splitRecheckInterval - 1 - (splitValidityCounter - 1) % splitRecheckInterval;
+        int period = Math.min((int) (populatePeriod * splitRecheckInterval), splitRecheckInterval - 1);
+        if (untilRecheck == period) {
+            beginPopulation();
+        }
+
+        if (!populatingNodes.isEmpty()) {
+            int remaining = populateEnd - populateCursor;
+            populateWindow((remaining + untilRecheck) / (untilRecheck + 1));
+        }
+    }
+
+    protected void beginPopulation() {
+        finishPopulation();
+        initDueCounts(getRoot());
+        populateCursor = 0;
+        populateEnd = getWindow().size();
+        populatePosition = 0;
+    }
 
-        root.initCounts();
-        for (InstanceId instanceId : window) {
-            root.populateStats(instanceId);
+    /**
+     * Drop the statistics of the nodes populated for the recheck.
+     */
+    protected void finishPopulation() {
+        for (CNode node : populatingNodes) {
+            node.setPopulating(false);
+            node.clearCounts();
+        }
+        populatingNodes.clear();
+    }
+
+    /**
+     * Populate the nodes being populated with the next instances of the window, from their cached
+     * paths, or routed through the tree for the instances without a path.
+     */
+    protected void populateWindow(int numInstances) {
+        InstanceWindow window = getWindow();
+        int firstCached = windowPaths == null ? window.size() : window.size() - windowPaths.size();
+        int end = Math.min(populateEnd, populateCursor + numInstances);
+        for (; populateCursor < end; populateCursor++) {
+            Instance instance = getWindowInstance(populateCursor);
+            int id = window.getId(populateCursor);
+            if (populateCursor < firstCached) {
+                getRoot().populateStats(instance, id);
+                continue;
+            }
+
+            int length = windowPaths.getLength(populateCursor - firstCached);
+            for (int i = 0; i < length; i++) {
+                CNode node = windowPaths.getNode(populatePosition + i);
+                if (node.isPopulating() && !node.isDetached() && node.getId() <= id) {
+                    node.incrementCounts(instance, StatMode.POPULATE);
+                }
+            }
+            populatePosition += length;
+        }
+    }
+
+    /**
+     * Allocate statistics for the internal nodes due for a recheck, and drop the statistics of others.
+     */
+    protected void initDueCounts(CNode node) {
+        if (node.getAttribute() == null) {
+            return;
+        }
+
+        node.clearCounts();
+        if (!node.isFrozen() && node.getRecheckInstances() >= nMin) {
+            node.initNodeCounts();
+            node.setPopulating(true);
+            populatingNodes.add(node);
+        }
+
+        for (CNode alt : node.getAlternativeTrees()) {
+            initDueCounts(alt);
+        }
+        for (int i = 0; i < node.getSuccessors().length; i++) {
+            initDueCounts(node.getSuccessor(i));
+        }
+    }
+
+    /**
+     * A frozen node is never rechecked. In a lazy mode, only the internal nodes populated are rechecked,
+     * which had nMin instances since their last recheck, as their statistics come from the whole window.
+     */
+    protected boolean isRecheckDue(CNode node) {
+        if (node.isFrozen()) {
+            return false;
         }
+        return statMode != StatMode.LAZY || node.isPopulating();
     }
 
     /**
@@ -217,13 +634,22 @@ public class CVFDT extends VFDT
         if (node.getAttribute() != null) {
             // check the validity of the split on node.getAttribute() by
             // potentially creating a node with an alternative split
-            CVFDTProfiler profiler = getProfiler();
-            profiler.startRecheckNodeSplit();
-            recheckNodeSplit(instance, node);
-            profiler.stopRecheckNodeSplit();
+            // a frozen node has no statistics to recheck its split
+            if (isRecheckDue(node)) {
+                CVFDTProfiler profiler = getProfiler();
+                profiler.startRecheckNodeSplit();
+                recheckNodeSplit(instance, node);
+                profiler.stopRecheckNodeSplit();
+                node.resetRecheckInstances();
 
-            if (statMode == StatMode.LAZY) {
-                node.clearCounts();
+                if (statMode == StatMode.LAZY) {
+                    node.setPopulating(false);
+                    node.clearCounts();
+                }
+
+                if (node.updateQuietRechecks(freezeQuietRechecks)) {
+                    profiler.addFrozenNode();
+                }
             }
 
             // traverse into all the alternative nodes
@@ -232,35 +658,53 @@ public class CVFDT extends VFDT
             }
 
             // descend into all child nodes
-            int numValues = node.getAttribute().numValues();
-            for (int attributeValue = 0; attributeValue < numValues; attributeValue++) {
-                CNode childNode = node.getSuccessor(attributeValue);
+            for (int i = 0; i < node.getSuccessors().length; i++) {
+                CNode childNode = node.getSuccessor(i);
                 traverseAndCheckSplitValidity(instance, childNode);
             }
         }
     }
 
     /**
-     * In addition to incrementing the counts for the main tree,
-     * increment the counts of any alternative trees being grown from this VNode.
+     * In addition to incrementing the counts for the main tree, increment the counts of any
+     * alternative trees being grown from this VNode. The test count of every node is incremented
+     * on the way, which may replace the node with one of its alternative trees, so the instance
+     * is routed once through the resulting tree. The nodes in test mode and the leaves not in
+     * test mode are collected for {@link #testAndSplit(Instance)}, and all nodes reached for
+     * the path of the instance in the window.
      */
-    protected void traverseAndIncrementCounts(Instance instance, CNode node) {
+    protected void traverseAndUpdate(Instance instance, CNode node) {
+        // enter or exit test mode first, the counts then go to the node replacing this one
+        node.incrementTestCount(testInterval, testDuration, getProfiler(), minAltErrorDiff);
+
         // increment the counts for this node
         // (unlike VFDT, statistics are kept for each data instance
         // at every node in the tree in order to continuously monitor
         // the validity of previous decisions)
         node.incrementCounts(instance, statMode);
+        if (node.getAttribute() != null) {
+            node.incrementRecheckInstances();
+        }
+        if (cacheWindowPaths) {
+            reachedNodes.add(node);
+        }
+
+        if (node.isTestMode()) {
+            testNodes.add(node);
+        }
 
         // traverse into all the alternative nodes
         for (CNode alt : node.getAlternativeTrees()) {
-            traverseAndIncrementCounts(instance, alt);
+            traverseAndUpdate(instance, alt);
         }
 
         // if tree node is not a leaf node,
         // descend into the appropriate child node
         CNode childNode = getChild(instance, node);
         if (childNode != null) {
-            traverseAndIncrementCounts(instance, childNode);
+            traverseAndUpdate(instance, childNode);
+        } else if (!node.isTestMode()) {
+            reachedLeaves.add(node);
         }
     }
 
@@ -268,18 +712,8 @@ public class CVFDT extends VFDT
         CNode childNode = null;
         Attribute attribute = node.getAttribute();
         if (attribute != null) {
-            double attributeValue = instance.value(attribute);
-
-            // for numeric attribute split, it has two branchs,
-            if (attribute.isNumeric()) {
-                if (attributeValue <= node.getSplitValue()) {
-                    childNode = node.getSuccessor(0);
-                } else {
-                    childNode = node.getSuccessor(1);
-                }
-            } else {
-                childNode = node.getSuccessor((int) attributeValue);
-            }
+            // a numeric or binary discrete split has two branches, otherwise one branch per value
+            childNode = node.getSuccessor(node.getBranch(instance.value(attribute)));
         }
 
         return childNode;
@@ -311,47 +745,34 @@ public class CVFDT extends VFDT
     }
 
     /**
-     * <p>Traverses the main tree and alternative trees. If in test mode, classifies
-     * the instance and increments the testCorrectCount if the classification
-     * is correct.</p>
+     * <p>For the nodes in test mode collected by {@link #traverseAndUpdate(Instance, CNode)}, classifies
+     * the instance and increments the testCorrectCount if the classification is correct.</p>
      *
-     * <p>If not in test mode, does nothing unless this is a leaf node and nMin
-     * instances have been reached. At that point it checks for potential new
-     * splits of the node.</p>
+     * <p>Then checks for potential new splits of the leaves collected for which nMin instances have
+     * been reached. A node is always tested before the leaves below it are split.</p>
      *
      * @param instance
      */
-    protected void traverseAndSplitOrTest(Instance instance, CNode node)
+    protected void testAndSplit(Instance instance)
     {
-        node.incrementTestCount(testInterval, testDuration, getProfiler(), minAltErrorDiff);
-
-        // If we're in test mode, instead of considering splits, evaluate
-        // the predicted class of this instance and compare it to the correct
-        // classification then store whether or not it matches. Perform this
-        // calculation for this node and each alternative node.
-        if (node.isTestMode()) {
-            node.testInstance(instance);
-        }
-
-        // traverse into all the alternative nodes
-        for (CNode alt : node.getAlternativeTrees()) {
-            traverseAndSplitOrTest(instance, alt);
+        // Instead of considering splits, evaluate the predicted class of this instance
+        // and compare it to the correct classification then store whether or not it matches.
+        // Perform this calculation for this node and each alternative node.
+        // a node may have been detached by the test of a node above it
+        for (CNode node : testNodes) {
+            if (!node.isDetached()) {
+                node.testInstance(instance);
+            }
         }
 
-        // if tree node is not a leaf node,
-        // descend into the appropriate child node
-        CNode childNode = getChild(instance, node);
-        if (childNode != null) {
-            traverseAndSplitOrTest(instance, childNode);
-        }
-        // if we are not in test mode and the node is a leaf node and
-        // the count is a multiple of nMin,
-        // check to see whether we should split the node
-        else if (!node.isTestMode() && node.getCount() % nMin == 0) {
-            CVFDTProfiler profiler = getProfiler();
-            profiler.startCheckNodeSplit();
-            checkNodeSplit(instance, node);
-            profiler.stopCheckNodeSplit();
+        // if the split check is due, check to see whether we should split the leaf
+        for (CNode node : reachedLeaves) {
+            if (!node.isDetached() && isSplitCheckDue(node, node.getCount() - 1)) {
+                CVFDTProfiler profiler = getProfiler();
+                profiler.startCheckNodeSplit();
+                checkNodeSplit(instance, node);
+                profiler.stopCheckNodeSplit();
+            }
         }
     }
 
@@ -360,18 +781,79 @@ public class CVFDT extends VFDT
         //XXX passes through* I think using the overall largest ID has the
         //XXX same affect, but I'm not 100% sure
 
+        // drop the oldest instances from the window to make room for the new one
+        InstanceWindow window = getWindow();
+        while (window.size() >= windowSize) {
+            // the nodes being populated count the old instance before it is decremented
+            if (!populatingNodes.isEmpty() && populateCursor == 0 && populateEnd > 0) {
+                populateWindow(1);
+            }
+            if (!reactivatingLeaves.isEmpty() && reactivateCursor == 0 && reactivateEnd > 0) {
+                populateReactivatedLeaves(1);
+            }
+
+            int oldId = window.getId(0);
+            Instance oldInstance = getWindowInstance(0);
+
+            // the paths are kept for the newest instances of the window only, when caching
+            // was turned on or the model was restored with instances in the window
+            boolean cached = windowPaths != null && windowPaths.size() == window.size();
+
+            // decrement the counts of the old instance on its path, or iterate through the tree
+            // (and all alternative trees) and decrement them if the node's id is less than or
+            // equal to oldId
+            if (cached) {
+                decrementCachedPath(oldInstance, oldId);
+                if (populateCursor > 0) {
+                    populatePosition -= windowPaths.getLength(0);
+                }
+                if (reactivateCursor > 0) {
+                    reactivatePosition -= windowPaths.getLength(0);
+                }
+                windowPaths.removeFirst();
+            } else {
+                traverseAndDecrementCounts(oldInstance, getRoot(), oldId);
+            }
+            window.removeFirst();
+            if (populateCursor > 0) {
+                populateCursor--;
+            }
+            if (populateEnd > 0) {
+                populateEnd--;
+            }
+            if (reactivateCursor > 0) {
+                reactivateCursor--;
+            }
+            if (reactivateEnd > 0) {
+                reactivateEnd--;
+            }
+        }
+
         // add the new instance to the window
         // tag it with the id of the largest currently existing node
-        window.addLast(new InstanceId(instance, largestNodeId));
+        window.add(instance.getValues(), largestNodeId);
 
-        // drop the oldest instance from the window
-        if (window.size() > windowSize) {
-            InstanceId oldInstanceId = window.removeFirst();
-            int oldId = oldInstanceId.getId();
+        if (cacheWindowPaths && reachedNodes != null) {
+            if (windowPaths == null || windowPaths.getCapacity() != window.getCapacity()) {
+                windowPaths = new PathWindow(window.getCapacity());
+                populatePosition = 0;
+                reactivatePosition = 0;
+            }
+            windowPaths.add(reachedNodes);
+        }
+    }
 
-            // iterate through the tree (and all alternative trees) and decrement
-            // counts if the node's id is less than or equal to oldId
-            traverseAndDecrementCounts(instance, getRoot(), oldId);
+    /**
+     * Decrement the counts of the nodes on the path of the oldest instance of the window,
+     * which are still in the tree. A node replaced by an alternative tree takes its id, so the id
+     * is checked like in {@link #traverseAndDecrementCounts(Instance, CNode, int)}.
+     */
+    protected void decrementCachedPath(Instance instance, int id) {
+        for (int i = 0; i < windowPaths.getLength(0); i++) {
+            CNode node = windowPaths.getNode(i);
+            if (!node.isDetached() && node.getId() <= id) {
+                node.decrementCounts(instance, statMode);
+            }
         }
     }
 
@@ -398,52 +880,28 @@ public class CVFDT extends VFDT
         double firstValue = Double.MAX_VALUE;
         double secondValue = Double.MAX_VALUE;
         double splitValue = 0d;
+        boolean[] leftValues = null;
 
-        int[] sampledFeautres = node.getSampledFeatures();
-        int sampledIndex = 0;
-
-        // loop through all the attributes, calculating information gains
-        // and keeping the attributes with the two highest information gains
-        for (int attrIndex = 0; attrIndex < instance.numAttributes(); attrIndex++) {
-            // compute split for feature that chosen by this node.
-            if (numSampledFeatures > 0)  {
-                if (sampledIndex >= numSampledFeatures) {
-                    break;
-                }
-                if (sampledFeautres[sampledIndex] != attrIndex) {
-                    continue;
-                } else {
-                    sampledIndex++;
-                }
-            }
+        // keep the attributes with the two highest information gains,
+        // not considering the current split discrete attribute
+        Split[] splits = evaluateSplits(node, true);
+        for (int attrIndex = 0; attrIndex < splits.length; attrIndex++) {
+            Split bestSplit = splits[attrIndex];
+            if (bestSplit == null) continue;
 
-            // don't consider the class attribute
-            if (attrIndex == classAttribute.index()) continue;
-            // don't consider the current split discrete attribute
-            if (attrIndex == node.getAttribute().index() && !node.getAttribute().isNumeric()) continue;
-
-            Attribute attribute = instance.attribute(attrIndex);
-            double value = 0d;
-            Split bestSplit = null;
-            if (classAttribute.isNumeric()) {
-                bestSplit = computeResidualSum(node, attribute);
-            } else {
-                bestSplit = computeEntropySum(node, attribute);
-            }
-            value = bestSplit.getScv();
+            double value = bestSplit.getScv();
 
             if (value < firstValue) {
                 secondValue = firstValue;
                 firstValue = value;
                 firstIndex = attrIndex;
                 splitValue = bestSplit.getSplitValue();
+                leftValues = bestSplit.getLeftValues();
             } else if (value < secondValue) {
                 secondValue = value;
             }
         }
 
-        assert(sampledIndex == numSampledFeatures);
-
         // if the difference between the information gain of the two best attributes
         // has exceeded the Hoeffding bound (which will continually shrink as more
         // attributes are added to the node) then split on the best attribute
@@ -454,7 +912,7 @@ public class CVFDT extends VFDT
         // and the new csv must be better than the old one for node split recheck
         boolean confident = secondValue - firstValue > hoeffdingBound;
         if (confident) {
-            double mainScv = computeResidualSum(node, node.getAttribute(), node.getSplitValue());
+            double mainScv = computeNodeSplitScv(node);
             confident = confident && mainScv > firstValue;
         }
 
@@ -464,7 +922,7 @@ public class CVFDT extends VFDT
 
         if (!alreadyExists && (tie || confident)) {
             Attribute attribute = instance.attribute(firstIndex);
-            node.addAlternativeNode(instance, attribute, ++largestNodeId, splitValue);
+            node.addAlternativeNode(instance, attribute, ++largestNodeId, splitValue, leftValues);
 
             profiler.addNumALTTotalSplit();
             if (tie) {
@@ -506,7 +964,7 @@ public class CVFDT extends VFDT
         ret.append("\n");
         ret.append("Confident level: " + getConfidenceLevel()).append("\n");
         ret.append("Tie confidence: " + getTieConfidence()).append("\n");
-        ret.append("Window size: " + window.size()).append("\n");
+        ret.append("Window size: " + (window == null ? 0 : window.size())).append("\n");
         ret.append("Split recheck interval: " + splitRecheckInterval).append("\n");
         ret.append("Test interval: " + testInterval).append("\n");
         ret.append("Test duration: " + testDuration).append("\n");
@@ -552,6 +1010,9 @@ public class CVFDT extends VFDT
         pr.put("CVFDT.TestALTCount", (double) profiler.getTestALTCount());
         pr.put("CVFDT.TestALTCost", profiler.getTestALTCost());
         pr.put("CVFDT.Preprune", (double) profiler.getNumPreprune());
+        pr.put("CVFDT.Deactivation", (double) profiler.getNumDeactivation());
+        pr.put("CVFDT.Reactivation", (double) profiler.getNumReactivation());
+        pr.put("CVFDT.FrozenNode", (double) profiler.getNumFrozenNode());
 
         pr.put("CVFDT.TreeSize", (double) profiler.getTreeSize());
         pr.put("CVFDT.ALTSize", (double) profiler.getALTSize());
@@ -4,6 +4,8 @@ package com.jd.si.venus.algorithm.rf.model.tree;
 import com.jd.si.venus.algorithm.rf.model.OnlineModel;
 import com.jd.si.venus.algorithm.rf.model.core.Attribute;
 import com.jd.si.venus.algorithm.rf.model.core.Instance;
+import com.jd.si.venus.algorithm.rf.model.core.InstanceBatch;
+import com.jd.si.venus.algorithm.rf.model.tree.node.FlatTree;
 import com.jd.si.venus.algorithm.rf.model.tree.node.Node;
 import com.jd.si.venus.algorithm.rf.model.tree.profiler.SDTProfiler;
 
@@ -26,6 +28,9 @@ public class SDT extends OnlineModel implements Serializable {
     /** Root node of classification tree. */
     protected Node root;
 
+    /** Compiled form of the tree used for scoring. */
+    protected FlatTree flatTree;
+
     protected VFDT.TreeType treeType; // A decision tree, otherwise a regression tree.
 
     protected int numSampledFeatures;
@@ -35,6 +40,7 @@ public class SDT extends OnlineModel implements Serializable {
                int numSampledFeatures) {
         this.model = model;
         this.root = root;
+        this.flatTree = new FlatTree(root);
         this.attributes = attributes;
         this.classAttribute = classAttribute;
         this.treeType = treeType;
@@ -61,6 +67,31 @@ public class SDT extends OnlineModel implements Serializable {
         throw new RuntimeException("A Simple Decision Tree is a compact tree for scoring only.");
     }
 
+    @Override
+    public double scoreEncoded(double[] values) {
+        profiler.startScoring();
+        double scoreValue = flatTree.score(values);
+        profiler.stopScoring();
+
+        return scoreValue;
+    }
+
+    /**
+     * Score all instances of the batch.
+     * @param batch
+     * @param out the class index for a decision tree, the target value for a regression tree
+     */
+    public void scoreBatch(InstanceBatch batch, double[] out) {
+        profiler.startScorings(batch.size());
+        flatTree.score(batch.getColumns(), batch.size(), out);
+        profiler.stopScoring();
+    }
+
+    @Override
+    public void addInstanceEncoded(double[] values, double classValue) {
+        throw new RuntimeException("A Simple Decision Tree is a compact tree for scoring only.");
+    }
+
     @Override
     public OnlineModel getTrainingModel() {
         throw new RuntimeException("A Simple Decision Tree can't generate a training model.");
@@ -79,7 +110,7 @@ public class SDT extends OnlineModel implements Serializable {
         }
 
         // get the class value for the leaf node corresponding to the provided instance
-        double scoreValue = root.getLeafNode(instance).getScoreValue();
+        double scoreValue = flatTree.score(instance.getValues());
 
         profiler.stopScoring();
 
@@ -92,7 +123,7 @@ public class SDT extends OnlineModel implements Serializable {
      * @return
      */
     public double predict(Object[] values) {
-        return score(new Instance(attributes, values, classAttribute));
+        return score(new Instance(attributes, values, classAttribute, false));
     }
 
     /**
@@ -101,7 +132,7 @@ public class SDT extends OnlineModel implements Serializable {
      * @return
      */
     public String classify(Object[] values) {
-        return classAttribute.value((int) score(new Instance(attributes, values, classAttribute)));
+        return classAttribute.value((int) score(new Instance(attributes, values, classAttribute, false)));
     }
 
     @Override
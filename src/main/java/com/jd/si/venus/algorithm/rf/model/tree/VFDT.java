@@ -5,6 +5,7 @@ package com.jd.si.venus.algorithm.rf.model.tree;
 import com.jd.si.venus.algorithm.rf.model.OnlineModel;
 import com.jd.si.venus.algorithm.rf.model.core.Attribute;
 import com.jd.si.venus.algorithm.rf.model.core.Instance;
+import com.jd.si.venus.algorithm.rf.model.core.InstanceBatch;
 import com.jd.si.venus.algorithm.rf.model.tree.profiler.AbstractProfiler;
 import com.jd.si.venus.algorithm.rf.model.tree.split.*;
 import com.jd.si.venus.algorithm.rf.model.tree.node.VNode;
@@ -13,9 +14,19 @@ import com.jd.si.venus.algorithm.rf.model.util.Utils;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -62,6 +73,118 @@ public class VFDT extends OnlineModel implements Serializable
     // min rate of instance within one node
     protected double minInstRate = 0.001d;
 
+    // reused by the encoded scoring and training api, so that they don't allocate per instance
+    protected transient Instance encodedInstance;
+    protected transient double[] encodedValues;
+
+    // if greater than 0, instances are buffered and trained leaf by leaf once the buffer is full
+    protected int miniBatchSize = 0;
+    protected transient InstanceBatch pendingBatch;
+    // reused buffers to group a mini batch by leaf
+    protected transient VNode[] batchLeaves;
+    protected transient int[] batchGroups;
+    protected transient int[] batchOrder;
+    protected transient VNode[] groupLeaves;
+    protected transient int[] groupStarts;
+
+    // impurity of classification splits
+    protected SplitCriterion splitCriterion = new EntropyCriterion();
+
+    // reused by the numeric entropy sweeps
+    protected transient EntropySweep entropySweep;
+
+    // if greater than 1, attributes of a split check are evaluated by this many threads
+    protected int parallelism = 1;
+    // min number of candidate attributes to evaluate them in parallel
+    protected int minParallelAttributes = 64;
+    protected transient ExecutorService splitExecutor;
+    protected transient EntropySweep[] parallelSweeps;
+
+    // if true, a leaf failing a split check skips checks until it may have enough instances to split
+    protected boolean adaptiveGracePeriod = false;
+
+    // if true, a failed split check releases the statistics of the attributes which can't be the best
+    protected boolean removePoorAttributes = false;
+
+    // if true, a split check skips the attributes whose cached scv can't drop below the second best
+    protected boolean cacheSplitScores = false;
+
+    // if greater than 0, estimated bytes of statistics allowed, enforced every memoryCheckInterval instances
+    protected long memoryBudget = 0;
+    protected int memoryCheckInterval = 10000;
+    protected int memoryCheckCounter = 0;
+    // average estimated bytes of an active leaf at the last check
+    protected long averageLeafSize = 0;
+
+    // if true, the attribute statistics of a node are released when it is split
+    protected boolean releaseInternalStats = true;
+
+    // if true, split checks are evaluated in background on a copy of the leaf statistics
+    protected boolean asyncSplitCheck = false;
+    protected transient ExecutorService asyncExecutor;
+    protected transient List<PendingSplit> pendingSplits;
+
+    /**
+     * Best split found by a split check, and whether to apply it.
+     */
+    protected static class SplitDecision extends Split {
+        protected double nullValue;
+        protected double gap;
+        protected boolean tie;
+        protected boolean split;
+        // attributes to remove from the leaf if not split, null if none
+        protected int[] poorAttributes;
+
+        public SplitDecision(Attribute attr, double scv, double splitValue, double nullValue, double gap,
+                             boolean tie, boolean split) {
+            super(attr, scv, splitValue);
+            this.nullValue = nullValue;
+            this.gap = gap;
+            this.tie = tie;
+            this.split = split;
+        }
+
+        public int[] getPoorAttributes() {
+            return poorAttributes;
+        }
+
+        public void setPoorAttributes(int[] poorAttributes) {
+            this.poorAttributes = poorAttributes;
+        }
+
+        /**
+         * @return difference between the scv of the second best and the best attributes
+         */
+        public double getGap() {
+            return gap;
+        }
+
+        public boolean isSplit() {
+            return split;
+        }
+
+        public double getNullValue() {
+            return nullValue;
+        }
+
+        public boolean isTie() {
+            return tie;
+        }
+    }
+
+    /**
+     * Split check running in background for a leaf.
+     */
+    protected static class PendingSplit {
+        protected VNode node;
+        protected Future<SplitDecision> decision;
+
+        public PendingSplit(VNode node, Future<SplitDecision> decision) {
+            this.node = node;
+            this.decision = decision;
+        }
+    }
+
     protected VFDT (int numCols, String[] colNames, boolean[] isCont, String[][] distVals, int targetIdx) {
         attributes = new ArrayList<Attribute>();
         for (int i = 0; i < numCols; i++) {
@@ -211,6 +334,137 @@ public class VFDT extends OnlineModel implements Serializable
         root.updateLeafNodeAttrStat(attributes, numSampledFeatures);
     }
 
+    /**
+     * Let all discrete training attributes append unseen values instead of failing,
+     * see {@link Attribute#setGrowable(boolean)}.
+     * @param growable
+     */
+    public void setGrowableAttributes(boolean growable) {
+        for (Attribute attribute : attributes) {
+            if (!attribute.isNumeric() && attribute != classAttribute) {
+                attribute.setGrowable(growable);
+            }
+        }
+    }
+
+    /**
+     * Summarize all numeric training attributes with the given summary, see
+     * {@link Attribute#setNumSummary(Attribute.NumSummary, int)}. Should be set before training.
+     * @param numSummary
+     * @param numBins
+     */
+    public void setNumSummary(Attribute.NumSummary numSummary, int numBins) {
+        for (Attribute attribute : attributes) {
+            if (attribute.isNumeric() && attribute != classAttribute) {
+                attribute.setNumSummary(numSummary, numBins);
+            }
+        }
+    }
+
+    /**
+     * Split the discrete training attributes with at least minValues values into two subsets of values,
+     * see {@link Attribute#setBinarySplit(boolean)}. The values are ordered by their share of the majority
+     * class, or by their mean target for a regression tree, and the best cut of the order is taken.
+     * Should be set before training.
+     * @param minValues 0 to split every discrete attribute with a branch per value
+     */
+    public void setBinarySplitMinValues(int minValues) {
+        for (Attribute attribute : attributes) {
+            if (!attribute.isNumeric() && attribute != classAttribute) {
+                attribute.setBinarySplit(minValues > 0 && attribute.numValues() >= minValues);
+            }
+        }
+    }
+
+    /**
+     * Bound the split candidates of every numeric training attribute by a quantile sketch, see
+     * {@link NumAttrStat.QuantileSketch}, so that a split check costs O(maxSplitCandidates) per attribute
+     * instead of O(distinct values). Should be set before training.
+     * @param maxSplitCandidates 0 to evaluate every distinct value
+     */
+    public void setMaxSplitCandidates(int maxSplitCandidates) {
+        for (Attribute attribute : attributes) {
+            if (attribute.isNumeric() && attribute != classAttribute) {
+                if (maxSplitCandidates > 0) {
+                    attribute.setNumSummary(Attribute.NumSummary.QUANTILE, maxSplitCandidates);
+                } else {
+                    attribute.setNumSummary(Attribute.NumSummary.RAW, attribute.getNumBins());
+                }
+            }
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Evaluate the candidate attributes of a split check in parallel. The best and second best
+     * splits are reduced in attribute order, so the tree is the same as in serial evaluation.
+     *
+     * @param parallelism number of threads, 1 to evaluate on the training thread
+     * @param minParallelAttributes split checks with fewer candidate attributes are evaluated serially
+     */
+    public synchronized void setParallelism(int parallelism, int minParallelAttributes) {
+        if (splitExecutor != null) {
+            splitExecutor.shutdown();
+            splitExecutor = null;
+        }
+        this.parallelism = Math.max(1, parallelism);
+        this.minParallelAttributes = minParallelAttributes;
+    }
+
+    protected synchronized ExecutorService getSplitExecutor() {
+        if (splitExecutor == null) {
+            splitExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "vfdt-split");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            parallelSweeps = new EntropySweep[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                parallelSweeps[i] = new EntropySweep(numClasses, splitCriterion);
+            }
+        }
+        return splitExecutor;
+    }
+
+    public boolean isAsyncSplitCheck() {
+        return asyncSplitCheck;
+    }
+
+    /**
+     * In async mode, a leaf due for a split check is copied and evaluated on a background thread,
+     * so that training doesn't wait for it. The split is applied by the next training call after
+     * the check is done, if the leaf has not been split yet; {@link #flush()} waits for all checks.
+     *
+     * @param asyncSplitCheck
+     */
+    public void setAsyncSplitCheck(boolean asyncSplitCheck) {
+        if (asyncSplitCheck && cacheSplitScores) {
+            throw new RuntimeException("It is not supported to check splits async with split score caching.");
+        }
+        flush();
+        if (!asyncSplitCheck && asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+        this.asyncSplitCheck = asyncSplitCheck;
+    }
+
+    /**
+     * @return sweep reused by the numeric split evaluations
+     */
+    protected EntropySweep getEntropySweep() {
+        if (entropySweep == null) {
+            entropySweep = new EntropySweep(numClasses, splitCriterion);
+        }
+        return entropySweep;
+    }
+
     /**
      * Nodes are only checked for splits when the reach multiple of nMin instances.
      */
@@ -227,6 +481,155 @@ public class VFDT extends OnlineModel implements Serializable
         this.nMin = nmin;
     }
 
+    public boolean isAdaptiveGracePeriod() {
+        return adaptiveGracePeriod;
+    }
+
+    /**
+     * With adaptive grace period, a leaf failing a split check estimates from the gap between its
+     * two best attributes how many instances it needs before the Hoeffding bound could be below
+     * the gap (or the tie threshold), and skips the checks until then. Otherwise leaves are checked
+     * every nMin instances.
+     *
+     * @param adaptiveGracePeriod
+     */
+    public void setAdaptiveGracePeriod(boolean adaptiveGracePeriod) {
+        this.adaptiveGracePeriod = adaptiveGracePeriod;
+    }
+
+    public boolean isRemovePoorAttributes() {
+        return removePoorAttributes;
+    }
+
+    /**
+     * With poor attribute removal, when a leaf is not split, the attributes whose scv trails the best
+     * one by more than the Hoeffding bound are dropped from the leaf: their statistics are released
+     * and no longer updated. Its children start again with all attributes.
+     *
+     * @param removePoorAttributes
+     */
+    public void setRemovePoorAttributes(boolean removePoorAttributes) {
+        this.removePoorAttributes = removePoorAttributes;
+    }
+
+    public boolean isCacheSplitScores() {
+        return cacheSplitScores;
+    }
+
+    /**
+     * With split score caching, a leaf keeps the best scv of every attribute and its count when it was
+     * evaluated. With a share f of instances added since, the weighted impurity of any split is at least
+     * (1 - f) times its old value, because the impurity is concave. So an attribute whose cached scv times
+     * (1 - f) is above the second best scv of the check can't be one of the two best, and is not evaluated.
+     * Only for classification, the residual rate of a regression tree is relative to the changing variance.
+     *
+     * The bound only holds for the exact statistics of a fixed set of splits: numeric attributes summarized
+     * with RAW, and discrete attributes with a branch per value. The others, whose bins are merged or whose
+     * split is a heuristic, are evaluated at every check. Not supported with async split checks, which
+     * evaluate a copy of the leaf.
+     *
+     * @param cacheSplitScores
+     */
+    public void setCacheSplitScores(boolean cacheSplitScores) {
+        if (cacheSplitScores && asyncSplitCheck) {
+            throw new RuntimeException("It is not supported to cache split scores with async split checks.");
+        }
+        this.cacheSplitScores = cacheSplitScores;
+    }
+
+    /**
+     * @return whether the cached scv of the attribute bounds its scv, see {@link #setCacheSplitScores(boolean)}
+     */
+    protected boolean isScvBounded(Attribute attribute) {
+        if (attribute.isNumeric()) {
+            return attribute.getNumSummary() == Attribute.NumSummary.RAW;
+        }
+        return !attribute.isBinarySplit();
+    }
+
+    public boolean isReleaseInternalStats() {
+        return releaseInternalStats;
+    }
+
+    /**
+     * VFDT never splits an internal node again, so by default the attribute statistics of a node
+     * are released when it is split. Set to false to keep them, e.g. for inspection.
+     *
+     * @param releaseInternalStats
+     */
+    public void setReleaseInternalStats(boolean releaseInternalStats) {
+        this.releaseInternalStats = releaseInternalStats;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Bound the estimated memory of the node statistics. Every memoryCheckInterval instances, leaves
+     * are ranked by their promise, the instances they misclassify (or their residual sum of squares),
+     * and the least promising leaves beyond the budget are deactivated: they drop their attribute
+     * statistics but keep routing and predicting. An inactive leaf which ranks within the budget
+     * again is reactivated. Statistics of internal nodes count to the budget but are not released.
+     *
+     * @param memoryBudget bytes, 0 for no budget
+     * @param memoryCheckInterval number of instances between two checks of the budget
+     */
+    public void setMemoryBudget(long memoryBudget, int memoryCheckInterval) {
+        this.memoryBudget = memoryBudget;
+        this.memoryCheckInterval = memoryCheckInterval;
+    }
+
+    /**
+     * @return estimated bytes of the statistics of the tree
+     */
+    public long getMemorySize() {
+        List<VNode> leaves = new ArrayList<VNode>();
+        long size = collectLeaves(getRoot(), leaves);
+        for (VNode leaf : leaves) {
+            size += leaf.getMemorySize();
+        }
+        return size;
+    }
+
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+    /**
+     * In mini batch mode, instances are buffered until miniBatchSize of them arrive. The buffered
+     * instances are then routed to their leaves first, and each leaf updates its counts for all
+     * of its instances at once and checks for a split at most once per batch.
+     * Buffered instances are not visible to scoring until the batch is trained, see {@link #flush()}.
+     *
+     * @param miniBatchSize 0 to train instance by instance
+     */
+    public void setMiniBatchSize(int miniBatchSize) {
+        flush();
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    /**
+     * Train all instances buffered in mini batch mode, and apply all split checks running in background.
+     */
+    public void flush() {
+        VFDTProfiler profiler = getProfiler();
+        if (pendingBatch != null && pendingBatch.size() > 0) {
+            profiler.startTraining();
+            try {
+                trainBatch(pendingBatch, 0, pendingBatch.size());
+            } finally {
+                pendingBatch.clear();
+            }
+            profiler.stopTraining();
+        }
+        if (pendingSplits != null && !pendingSplits.isEmpty()) {
+            profiler.startTraining();
+            applyPendingSplits(getEncodedInstance(getEncodedValues()), true);
+            profiler.stopTraining();
+        }
+    }
+
     public AttrImprStat getAttrImprStat() {
         return attrImprStat;
     }
@@ -258,6 +661,32 @@ public class VFDT extends OnlineModel implements Serializable
         this.R_squared = Math.pow(range, 2.0);
     }
 
+    public SplitCriterion getSplitCriterion() {
+        return splitCriterion;
+    }
+
+    /**
+     * Set the impurity of classification splits, {@link EntropyCriterion} by default. The range of the
+     * Hoeffding bound is set to the range of the criterion. Should be set before training.
+     *
+     * @param splitCriterion e.g. {@link GiniCriterion}, which needs no logarithm
+     */
+    public synchronized void setSplitCriterion(SplitCriterion splitCriterion) {
+        if (classAttribute.isNumeric()) {
+            throw new RuntimeException("It is not supported to set a split criterion for a regression tree.");
+        }
+        this.splitCriterion = splitCriterion;
+        this.R_squared = Math.pow(splitCriterion.getRange(numClasses), 2);
+
+        // the sweeps are created again with the criterion
+        entropySweep = null;
+        if (parallelSweeps != null) {
+            for (int i = 0; i < parallelSweeps.length; i++) {
+                parallelSweeps[i] = new EntropySweep(numClasses, splitCriterion);
+            }
+        }
+    }
+
     public void setVerbose(boolean verbose) {
         this.verbose = verbose;
     }
@@ -295,15 +724,24 @@ public class VFDT extends OnlineModel implements Serializable
     }
 
     protected double score(Instance instance) {
-        VFDTProfiler profiler = getProfiler();
-        profiler.startScoring();
-
         if (instance.hasMissingValue()) {
             throw new RuntimeException("VFDT: missing values not supported.");
         }
 
-        // get the class value for the leaf node corresponding to the provided instance
-        double scoreValue = root.getLeafNode(instance).getScoreValue();
+        return score(instance.getValues());
+    }
+
+    /**
+     * Score encoded values without wrapping them in an instance, so that scoring never shares
+     * the reused instance of the training thread.
+     * @param values encoded values indexed by {@code Attribute#index()}
+     */
+    protected double score(double[] values) {
+        VFDTProfiler profiler = getProfiler();
+        profiler.startScoring();
+
+        // get the class value for the leaf node corresponding to the provided values
+        double scoreValue = root.getScoringNode(values).getScoreValue();
 
         profiler.stopScoring();
 
@@ -330,7 +768,7 @@ public class VFDT extends OnlineModel implements Serializable
      * @return
      */
     public double predict(Object[] values) {
-        return score(new Instance(attributes, values, classAttribute));
+        return score(new Instance(attributes, values, classAttribute, false));
     }
 
     /**
@@ -339,13 +777,77 @@ public class VFDT extends OnlineModel implements Serializable
      * @return
      */
     public String classify(Object[] values) {
-        return classAttribute.value((int) score(new Instance(attributes, values, classAttribute)));
+        return classAttribute.value((int) score(new Instance(attributes, values, classAttribute, false)));
     }
 
     public Attribute getClassAttribute() {
         return classAttribute;
     }
 
+    @Override
+    public double scoreEncoded(double[] values) {
+        return score(values);
+    }
+
+    @Override
+    public void addInstanceEncoded(double[] values, double classValue) {
+        double[] buffer = getEncodedValues();
+        System.arraycopy(values, 0, buffer, 0, Math.min(values.length, buffer.length));
+        buffer[classAttribute.index()] = classValue;
+
+        addInstance(getEncodedInstance(buffer));
+    }
+
+    /**
+     * Train on all instances of the batch.
+     * @param batch
+     */
+    public void addInstances(InstanceBatch batch) {
+        if (miniBatchSize > 0) {
+            flush();
+
+            VFDTProfiler profiler = getProfiler();
+            for (int from = 0; from < batch.size(); from += miniBatchSize) {
+                profiler.startTraining();
+                trainBatch(batch, from, Math.min(from + miniBatchSize, batch.size()));
+                profiler.stopTraining();
+            }
+            return;
+        }
+
+        double[] buffer = getEncodedValues();
+        Instance instance = getEncodedInstance(buffer);
+
+        for (int row = 0; row < batch.size(); row++) {
+            batch.getRow(row, buffer);
+            addInstance(instance);
+        }
+    }
+
+    /**
+     * @return the reused value buffer for encoded training
+     */
+    protected double[] getEncodedValues() {
+        if (encodedValues == null || encodedValues.length != attributes.size()) {
+            encodedValues = new double[attributes.size()];
+        }
+
+        return encodedValues;
+    }
+
+    /**
+     * @return the reused instance pointing to the given values, for the training thread only
+     */
+    protected Instance getEncodedInstance(double[] values) {
+        if (encodedInstance == null) {
+            encodedInstance = new Instance(attributes, values, classAttribute);
+        } else {
+            encodedInstance.setValues(values);
+        }
+
+        return encodedInstance;
+    }
+
     public void addInstance(Object[] values) {
         addInstance(new Instance(attributes, values, classAttribute));
     }
@@ -368,7 +870,27 @@ public class VFDT extends OnlineModel implements Serializable
         VFDTProfiler profiler = getProfiler();
         profiler.startTraining();
 
+        if (miniBatchSize > 0) {
+            if (pendingBatch == null) {
+                pendingBatch = new InstanceBatch(attributes, classAttribute, miniBatchSize);
+            }
+            pendingBatch.addEncoded(instance.getValues(), instance.classValue());
+
+            if (pendingBatch.size() >= miniBatchSize) {
+                try {
+                    trainBatch(pendingBatch, 0, pendingBatch.size());
+                } finally {
+                    pendingBatch.clear();
+                }
+            }
+
+            profiler.stopTraining();
+            return;
+        }
+
         try {
+            applyPendingSplits(instance, false);
+
             // traverse the classification tree to find the leaf node for this instance
             VNode node = root.getLeafNode(instance);
 
@@ -376,69 +898,255 @@ public class VFDT extends OnlineModel implements Serializable
             node.incrementCounts(instance);
 
             // check whether or not to split the node on an attribute
-            if (node.getCount() % nMin == 0) {
+            if (isSplitCheckDue(node, node.getCount() - 1)) {
                 profiler.startCheckNodeSplit();
                 checkNodeSplit(instance, node);
                 profiler.stopCheckNodeSplit();
             }
+
+            checkMemoryBudget(1);
         } catch (Exception e) {
             e.printStackTrace();
         }
         profiler.stopTraining();
     }
 
-    protected boolean preprune(VNode node) {
-        double instRate = (double) node.getCount() / (double) getRoot().getCount();
-        if (node.getCount() == 0 ||
-                (minInstRate > 0 && instRate < minInstRate) ||
-                (maxTreeHeight > 0 && node.getHeight() >= maxTreeHeight)) {
-            return true;
+    /**
+     * Train the instances [from, to) of the batch leaf by leaf. All instances are routed
+     * with the tree as it is before the batch, then every leaf increments the counts of
+     * its instances in one go and checks for a split if it became due.
+     */
+    protected void trainBatch(InstanceBatch batch, int from, int to) {
+        int numRows = to - from;
+        if (batchLeaves == null || batchLeaves.length < numRows) {
+            batchLeaves = new VNode[numRows];
+            batchGroups = new int[numRows];
+            batchOrder = new int[numRows];
+            groupLeaves = new VNode[numRows];
+            groupStarts = new int[numRows + 1];
         }
 
-        double nullValue = 0d;
-        if (classAttribute.isNumeric()) {
-            nullValue = computeResidual(node);
-        } else {
-            nullValue = computeEntropy(node);
+        double[] buffer = getEncodedValues();
+        Instance instance = getEncodedInstance(buffer);
+
+        int routed = 0;
+        int numGroups = 0;
+        try {
+            applyPendingSplits(instance, false);
+
+            // route every instance to its leaf and number the distinct leaves, an instance
+            // which fails to route is dropped like in addInstance
+            for (; routed < numRows; routed++) {
+                int i = routed;
+                batch.getRow(from + i, buffer);
+                VNode leaf;
+                try {
+                    leaf = root.getLeafNode(instance);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    batchLeaves[i] = null;
+                    batchGroups[i] = -1;
+                    continue;
+                }
+                if (leaf.getBatchGroup() < 0) {
+                    leaf.setBatchGroup(numGroups);
+                    groupLeaves[numGroups++] = leaf;
+                }
+                batchLeaves[i] = leaf;
+                batchGroups[i] = leaf.getBatchGroup();
+            }
+
+            // counting sort of the instances by leaf
+            for (int g = 0; g <= numGroups; g++) {
+                groupStarts[g] = 0;
+            }
+            for (int i = 0; i < numRows; i++) {
+                if (batchGroups[i] >= 0) {
+                    groupStarts[batchGroups[i] + 1]++;
+                }
+            }
+            for (int g = 0; g < numGroups; g++) {
+                groupStarts[g + 1] += groupStarts[g];
+            }
+            for (int i = 0; i < numRows; i++) {
+                if (batchGroups[i] >= 0) {
+                    batchOrder[groupStarts[batchGroups[i]]++] = i;
+                }
+            }
+            // groupStarts[g] now points to the end of group g
+            for (int g = numGroups; g > 0; g--) {
+                groupStarts[g] = groupStarts[g - 1];
+            }
+            groupStarts[0] = 0;
+
+            VFDTProfiler profiler = getProfiler();
+            for (int g = 0; g < numGroups; g++) {
+                VNode leaf = groupLeaves[g];
+                leaf.setBatchGroup(-1);
+                groupLeaves[g] = null;
+
+                int previousCount = leaf.getCount();
+                for (int k = groupStarts[g]; k < groupStarts[g + 1]; k++) {
+                    batch.getRow(from + batchOrder[k], buffer);
+                    leaf.incrementCounts(instance);
+                }
+
+                if (isSplitCheckDue(leaf, previousCount)) {
+                    profiler.startCheckNodeSplit();
+                    checkNodeSplit(instance, leaf);
+                    profiler.stopCheckNodeSplit();
+                }
+            }
+
+            checkMemoryBudget(numRows);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            for (int i = 0; i < routed; i++) {
+                if (batchLeaves[i] != null) {
+                    batchLeaves[i].setBatchGroup(-1);
+                    batchLeaves[i] = null;
+                }
+            }
+            for (int g = 0; g < numGroups; g++) {
+                groupLeaves[g] = null;
+            }
         }
-        if (nullValue == 0d) {
-            return true;
+    }
+
+    /**
+     * Enforce the memory budget if memoryCheckInterval instances have been trained since the last check.
+     * @param numInstances number of instances just trained
+     */
+    protected void checkMemoryBudget(int numInstances) {
+        if (memoryBudget <= 0) {
+            return;
         }
 
-        return false;
+        memoryCheckCounter += numInstances;
+        if (memoryCheckCounter >= memoryCheckInterval) {
+            memoryCheckCounter = 0;
+            enforceMemoryBudget();
+        }
     }
 
-    protected void checkNodeSplit(Instance instance, VNode node) {
+    protected void enforceMemoryBudget() {
         VFDTProfiler profiler = getProfiler();
-
-        if (preprune(node)) {
-            profiler.addPreprune();
-            return;
+        List<VNode> leaves = new ArrayList<VNode>();
+        long available = memoryBudget - collectLeaves(getRoot(), leaves);
+
+        // an inactive leaf is assumed to need as much as an average active leaf
+        long activeSize = 0;
+        int numActive = 0;
+        for (VNode leaf : leaves) {
+            if (leaf.isActive()) {
+                activeSize += leaf.getMemorySize();
+                numActive++;
+            }
+        }
+        if (numActive > 0) {
+            averageLeafSize = activeSize / numActive;
+        }
+
+        // young active leaves first, as their error is not known yet, then the most promising
+        Collections.sort(leaves, new Comparator<VNode>() {
+            @Override
+            public int compare(VNode a, VNode b) {
+                boolean aYoung = a.isActive() && a.getCount() < nMin;
+                boolean bYoung = b.isActive() && b.getCount() < nMin;
+                if (aYoung != bYoung) {
+                    return aYoung ? -1 : 1;
+                }
+                return Double.compare(b.getError(), a.getError());
+            }
+        });
+
+        List<VNode> reactivated = new ArrayList<VNode>();
+        for (VNode leaf : leaves) {
+            long size = leaf.isActive() ? leaf.getMemorySize() : averageLeafSize;
+            if (size <= available) {
+                available -= size;
+                if (!leaf.isActive()) {
+                    reactivated.add(leaf);
+                }
+            } else if (leaf.isActive()) {
+                leaf.deactivate();
+                profiler.addDeactivation();
+            }
+        }
+
+        if (!reactivated.isEmpty()) {
+            reactivateLeaves(reactivated);
+        }
+    }
+
+    /**
+     * Reactivate leaves with empty statistics. Their counts restart from 0, and they keep
+     * predicting their current class value until they have seen enough instances.
+     */
+    protected void reactivateLeaves(List<VNode> leaves) {
+        VFDTProfiler profiler = getProfiler();
+        for (VNode leaf : leaves) {
+            leaf.init(attributes, leaf.getScoreValue(), numSampledFeatures, leaf.getHeight());
+            profiler.addReactivation();
+        }
+    }
+
+    /**
+     * @param node
+     * @param leaves collects the leaves under the node
+     * @return estimated bytes of the statistics of the internal nodes under the node
+     */
+    protected long collectLeaves(VNode node, List<VNode> leaves) {
+        if (node.getAttribute() == null) {
+            leaves.add(node);
+            return 0;
+        }
+
+        long size = node.getMemorySize();
+        for (VNode successor : node.getSuccessors()) {
+            size += collectLeaves(successor, leaves);
+        }
+        return size;
+    }
+
+    protected boolean preprune(VNode node) {
+        double instRate = (double) node.getCount() / (double) getRoot().getCount();
+        if (node.getCount() == 0 ||
+                (minInstRate > 0 && instRate < minInstRate) ||
+                (maxTreeHeight > 0 && node.getHeight() >= maxTreeHeight)) {
+            return true;
         }
 
-        // In the worst case, all the records belong to one leaf are the same class or same target value.
-        // For batch training, this is one of the stop criterion.
-        // For streaming training, we don't split this node.
         double nullValue = 0d;
         if (classAttribute.isNumeric()) {
-            // for numeric class, its null value is residual rate.
-            nullValue = 1d;
+            nullValue = computeResidual(node);
         } else {
             nullValue = computeEntropy(node);
         }
+        if (nullValue == 0d) {
+            return true;
+        }
 
-        // determine based on Hoeffding Bound whether to split node
-        int firstIndex = -1;
-        double firstValue = Double.MAX_VALUE;
-        double secondValue = Double.MAX_VALUE;
-        double splitValue = 0d;
+        return false;
+    }
+
+    /**
+     * Evaluate the best split of every candidate attribute of the node.
+     *
+     * @param node
+     * @param skipSplitAttribute don't consider the node's current split attribute if it is discrete
+     * @return best split of each attribute by attribute index, null for the attributes not considered
+     */
+    protected Split[] evaluateSplits(final VNode node, boolean skipSplitAttribute) {
+        final Split[] splits = new Split[attributes.size()];
+        final int[] candidates = new int[attributes.size()];
+        int numCandidates = 0;
 
         int[] sampledFeautres = node.getSampledFeatures();
         int sampledIndex = 0;
 
-        // loop through all the attributes, calculating information gains
-        // and keeping the attributes with the two highest information gains
-        for (int attrIndex = 0; attrIndex < instance.numAttributes(); attrIndex++) {
+        for (int attrIndex = 0; attrIndex < attributes.size(); attrIndex++) {
             // compute split for feature that chosen by this node.
             if (numSampledFeatures > 0)  {
                 if (sampledIndex >= numSampledFeatures) {
@@ -453,16 +1161,225 @@ public class VFDT extends OnlineModel implements Serializable
 
             // don't consider the class attribute
             if (attrIndex == classAttribute.index()) continue;
+            if (node.isAttributeRemoved(attrIndex)) continue;
+            if (skipSplitAttribute && node.getAttribute() != null &&
+                    attrIndex == node.getAttribute().index() && !node.getAttribute().isNumeric()) continue;
 
-            Attribute attribute = instance.attribute(attrIndex);
-            double value = 0d;
-            Split bestSplit = null;
-            if (treeType == TreeType.DECISION_TREE) {
-                bestSplit = computeEntropySum(node, attribute);
-            } else {
-                bestSplit = computeResidualSum(node, attribute);
+            // statistics are created with the first instance
+            if (node.getCount(attributes.get(attrIndex)) == null) continue;
+
+            candidates[numCandidates++] = attrIndex;
+        }
+
+        if (cacheSplitScores && !classAttribute.isNumeric() && !skipSplitAttribute) {
+            evaluateCachedSplits(node, candidates, numCandidates, splits);
+        } else {
+            evaluateSplits(node, candidates, numCandidates, splits);
+        }
+        return splits;
+    }
+
+    /**
+     * Evaluate the candidates in two rounds: first the attributes without a bounding cached scv and the
+     * two with the lowest, then the others whose scv could drop below the second best of the first round.
+     * See {@link #setCacheSplitScores(boolean)}.
+     */
+    protected void evaluateCachedSplits(VNode node, int[] candidates, int numCandidates, Split[] splits) {
+        int count = node.getCount();
+        int[] round = new int[numCandidates];
+        int roundSize = 0;
+        int[] rest = new int[numCandidates];
+        int restSize = 0;
+
+        // lower bound of the scv of each cached attribute
+        double[] lowerBounds = new double[numCandidates];
+        int first = -1;
+        int second = -1;
+        for (int i = 0; i < numCandidates; i++) {
+            int attrIndex = candidates[i];
+            int cachedCount = node.getCachedCount(attrIndex);
+            if (cachedCount <= 0 || cachedCount > count || !isScvBounded(attributes.get(attrIndex))) {
+                round[roundSize++] = attrIndex;
+                continue;
+            }
+
+            lowerBounds[restSize] = node.getCachedScv(attrIndex) * cachedCount / count;
+            rest[restSize] = attrIndex;
+            if (first < 0 || lowerBounds[restSize] < lowerBounds[first]) {
+                second = first;
+                first = restSize;
+            } else if (second < 0 || lowerBounds[restSize] < lowerBounds[second]) {
+                second = restSize;
+            }
+            restSize++;
+        }
+
+        // the two most promising cached attributes are evaluated in the first round
+        for (int i = 0; i < restSize; i++) {
+            if (i == first || i == second) {
+                round[roundSize++] = rest[i];
             }
-            value = bestSplit.getScv();
+        }
+        evaluateSplits(node, round, roundSize, splits);
+
+        double firstValue = Double.MAX_VALUE;
+        double secondValue = Double.MAX_VALUE;
+        for (int i = 0; i < roundSize; i++) {
+            Split split = splits[round[i]];
+            if (split == null) continue;
+            node.cacheScv(round[i], split.getScv());
+
+            if (split.getScv() < firstValue) {
+                secondValue = firstValue;
+                firstValue = split.getScv();
+            } else if (split.getScv() < secondValue) {
+                secondValue = split.getScv();
+            }
+        }
+
+        roundSize = 0;
+        for (int i = 0; i < restSize; i++) {
+            if (i != first && i != second && lowerBounds[i] <= secondValue) {
+                round[roundSize++] = rest[i];
+            }
+        }
+        evaluateSplits(node, round, roundSize, splits);
+        for (int i = 0; i < roundSize; i++) {
+            if (splits[round[i]] != null) {
+                node.cacheScv(round[i], splits[round[i]].getScv());
+            }
+        }
+    }
+
+    /**
+     * Evaluate the best split of each candidate attribute into splits, in parallel if configured.
+     */
+    protected void evaluateSplits(final VNode node, final int[] candidates, int numCandidates, final Split[] splits) {
+        if (parallelism <= 1 || numCandidates < minParallelAttributes) {
+            EntropySweep sweep = getEntropySweep();
+            for (int i = 0; i < numCandidates; i++) {
+                splits[candidates[i]] = evaluateSplit(node, attributes.get(candidates[i]), sweep);
+            }
+            return;
+        }
+
+        // each task takes every numTasks-th candidate, and writes its own slots of splits
+        ExecutorService executor = getSplitExecutor();
+        final int numTasks = Math.min(parallelism, numCandidates);
+        final int total = numCandidates;
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            final int first = t;
+            final EntropySweep sweep = parallelSweeps[t];
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int i = first; i < total; i += numTasks) {
+                        splits[candidates[i]] = evaluateSplit(node, attributes.get(candidates[i]), sweep);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while evaluating splits.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to evaluate splits.", e.getCause());
+        }
+    }
+
+    protected Split evaluateSplit(VNode node, Attribute attribute, EntropySweep sweep) {
+        if (classAttribute.isNumeric()) {
+            return computeResidualSum(node, attribute);
+        } else {
+            return computeEntropySum(node, attribute, sweep);
+        }
+    }
+
+    protected void checkNodeSplit(Instance instance, VNode node) {
+        VFDTProfiler profiler = getProfiler();
+
+        if (preprune(node)) {
+            profiler.addPreprune();
+            return;
+        }
+
+        if (asyncSplitCheck) {
+            submitNodeSplit(node);
+            return;
+        }
+
+        applyNodeSplit(node, decideNodeSplit(node), instance);
+    }
+
+    /**
+     * @param node
+     * @param previousCount count of the node before the last update
+     * @return whether the node has to be checked for a split
+     */
+    protected boolean isSplitCheckDue(VNode node, int previousCount) {
+        if (!node.isActive()) {
+            return false;
+        }
+
+        int nextSplitCheck = node.getNextSplitCheck();
+        if (adaptiveGracePeriod && nextSplitCheck > 0) {
+            return previousCount < nextSplitCheck && node.getCount() >= nextSplitCheck;
+        }
+        return previousCount / nMin != node.getCount() / nMin;
+    }
+
+    /**
+     * Estimate the count at which the Hoeffding bound sqrt(R^2 * ln(1/delta) / 2n) gets below the gap
+     * between the two best attributes, or below the tie threshold. The gap of a young leaf is noisy,
+     * so the next check is at least nMin instances ahead and at most at twice the current count.
+     */
+    protected int estimateNextSplitCheck(VNode node, double gap) {
+        double threshold = Math.max(gap, tieConfidence);
+        double n = Math.ceil(R_squared * ln_inv_delta / (2 * threshold * threshold));
+        double count = node.getCount();
+        n = Math.min(n, 2 * count);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(n, count + nMin));
+    }
+
+    /**
+     * Run the Hoeffding test on the statistics of the node.
+     *
+     * @param node
+     * @return the best split, to be applied if {@link SplitDecision#isSplit()}
+     */
+    protected SplitDecision decideNodeSplit(VNode node) {
+        // In the worst case, all the records belong to one leaf are the same class or same target value.
+        // For batch training, this is one of the stop criterion.
+        // For streaming training, we don't split this node.
+        double nullValue = 0d;
+        if (classAttribute.isNumeric()) {
+            // for numeric class, its null value is residual rate.
+            nullValue = 1d;
+        } else {
+            nullValue = computeEntropy(node);
+        }
+
+        // determine based on Hoeffding Bound whether to split node
+        int firstIndex = -1;
+        double firstValue = Double.MAX_VALUE;
+        double secondValue = Double.MAX_VALUE;
+        double splitValue = 0d;
+        boolean[] leftValues = null;
+
+        // keep the attributes with the two highest information gains
+        Split[] splits = evaluateSplits(node, false);
+        for (int attrIndex = 0; attrIndex < splits.length; attrIndex++) {
+            Split bestSplit = splits[attrIndex];
+            if (bestSplit == null) continue;
+
+            double value = bestSplit.getScv();
 
             if (value < firstValue)
             {
@@ -470,6 +1387,7 @@ public class VFDT extends OnlineModel implements Serializable
                 firstValue = value;
                 firstIndex = attrIndex;
                 splitValue = bestSplit.getSplitValue();
+                leftValues = bestSplit.getLeftValues();
             }
             else if (value < secondValue)
             {
@@ -477,15 +1395,10 @@ public class VFDT extends OnlineModel implements Serializable
             }
         }
 
-        //node.setSplitValue(splitValue);
-
         // if the difference between the information gain of the two best attributes
         // has exceeded the Hoeffding bound (which will continually shrink as more
         // attributes are added to the node) then split on the best attribute
         double hoeffdingBound = calculateHoeffdingBound(node);
-        if (node.getCount() < 300) {
-            //System.out.println();
-        }
 
         // split if there is a large enough entropy difference between the first/second place attributes
         boolean confident = secondValue - firstValue > hoeffdingBound;
@@ -497,26 +1410,149 @@ public class VFDT extends OnlineModel implements Serializable
         boolean preprune = nullValue <= firstValue;
 
         // see: vfdt-engine.c:871
-        if ((tie || confident) && !preprune) {
-            Attribute attribute = instance.attribute(firstIndex);
+        boolean split = (tie || confident) && !preprune;
+        Attribute attribute = firstIndex >= 0 ? attributes.get(firstIndex) : null;
+        SplitDecision decision = new SplitDecision(attribute, firstValue, splitValue, nullValue,
+                secondValue - firstValue, tie, split);
+        decision.setLeftValues(leftValues);
+
+        if (!split && removePoorAttributes) {
+            decision.setPoorAttributes(findPoorAttributes(splits, firstValue, hoeffdingBound));
+        }
+        return decision;
+    }
 
-            node.setSplitValue(splitValue);
-            //node.setBestScv(firstValue);
-            splitNode(node, attribute, instance);
+    /**
+     * @return indexes of the attributes whose scv trails the best by more than the Hoeffding bound, null if none
+     */
+    protected int[] findPoorAttributes(Split[] splits, double firstValue, double hoeffdingBound) {
+        int numPoor = 0;
+        int[] poorAttributes = new int[splits.length];
+        for (int attrIndex = 0; attrIndex < splits.length; attrIndex++) {
+            if (splits[attrIndex] != null && splits[attrIndex].getScv() - firstValue > hoeffdingBound) {
+                poorAttributes[numPoor++] = attrIndex;
+            }
+        }
 
-            // update attribute importance
-            attrImprStat.updateAttrImpr(attribute, nullValue - firstValue);
+        return numPoor > 0 ? Arrays.copyOf(poorAttributes, numPoor) : null;
+    }
 
-            profiler.addTotalSplit();
-            if (tie) {
-                profiler.addTieSplit();
+    protected void applyNodeSplit(VNode node, SplitDecision decision, Instance instance) {
+        if (!decision.isSplit()) {
+            if (adaptiveGracePeriod) {
+                node.setNextSplitCheck(estimateNextSplitCheck(node, decision.getGap()));
             }
+            if (decision.getPoorAttributes() != null) {
+                for (int attrIndex : decision.getPoorAttributes()) {
+                    node.removeAttribute(attrIndex);
+                }
+            }
+            return;
+        }
+
+        VFDTProfiler profiler = getProfiler();
+        Attribute attribute = decision.getAttr();
+
+        node.setSplitValue(decision.getSplitValue());
+        node.setLeftValues(decision.getLeftValues());
+        splitNode(node, attribute, instance);
+
+        // update attribute importance
+        attrImprStat.updateAttrImpr(attribute, decision.getNullValue() - decision.getScv());
+
+        profiler.addTotalSplit();
+        if (decision.isTie()) {
+            profiler.addTieSplit();
         }
     }
 
+    /**
+     * Evaluate the split of a copy of the leaf statistics in background. The leaf keeps training
+     * meanwhile, and the split is applied by the training thread, see {@link #applyPendingSplits(Instance, boolean)}.
+     */
+    protected void submitNodeSplit(VNode node) {
+        if (pendingSplits == null) {
+            pendingSplits = new ArrayList<PendingSplit>();
+        }
+        for (PendingSplit pending : pendingSplits) {
+            if (pending.node == node) {
+                return;
+            }
+        }
+
+        final VNode snapshot = node.copyStats();
+        Future<SplitDecision> decision = getAsyncExecutor().submit(new Callable<SplitDecision>() {
+            @Override
+            public SplitDecision call() {
+                return decideNodeSplit(snapshot);
+            }
+        });
+        pendingSplits.add(new PendingSplit(node, decision));
+    }
+
+    /**
+     * Apply the background split checks which are done. A check which failed is logged and dropped,
+     * like a failed instance in {@link #addInstance(Instance)}, and the others are still applied.
+     *
+     * @param instance instance whose attributes are used to create the children
+     * @param wait whether to wait for the unfinished checks
+     */
+    protected void applyPendingSplits(Instance instance, boolean wait) {
+        if (pendingSplits == null || pendingSplits.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < pendingSplits.size(); ) {
+            PendingSplit pending = pendingSplits.get(i);
+            if (!wait && !pending.decision.isDone()) {
+                i++;
+                continue;
+            }
+
+            SplitDecision decision;
+            try {
+                decision = pending.decision.get();
+            } catch (InterruptedException e) {
+                // the check stays pending, and is applied by a later call
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                pendingSplits.remove(i);
+                logger.log(Level.WARNING, "Failed to check split.", e.getCause());
+                continue;
+            }
+            pendingSplits.remove(i);
+
+            // the node may have been split by an earlier check, or deactivated by the memory budget
+            // meanwhile, dropping its statistics, it is checked again once reactivated
+            if (pending.node.getAttribute() != null || !pending.node.isActive()) {
+                continue;
+            }
+            try {
+                applyNodeSplit(pending.node, decision, instance);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to apply split.", e);
+            }
+        }
+    }
+
+    protected synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "vfdt-async-split");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return asyncExecutor;
+    }
+
     protected void splitNode(VNode node, Attribute attribute, Instance instance)
     {
-        node.split(attribute, instance);
+        node.split(attribute, instance, releaseInternalStats);
     }
 
     /*
@@ -527,6 +1563,10 @@ public class VFDT extends OnlineModel implements Serializable
     */
 
     protected Split computeEntropySum(VNode node, Attribute attr) {
+        return computeEntropySum(node, attr, getEntropySweep());
+    }
+
+    protected Split computeEntropySum(VNode node, Attribute attr, EntropySweep sweep) {
         double sum = 0.0;
         double bestSplit = 0d;
 
@@ -535,52 +1575,42 @@ public class VFDT extends OnlineModel implements Serializable
         }
 
         if (attr.isNumeric()) {
-            int[] leClassCounts = new int[numClasses];
-            for (int i = 0 ; i < numClasses; i++) {
-                leClassCounts[i] = 0;
-            }
             double minEntropy = Double.MAX_VALUE;
-            NumAttrStat attrStat = (NumAttrStat) node.getCount(attr);
-            TreeMap<Double, ClassStat> counts = attrStat.getCounts();
-            int[] totalClassCounts = node.getClassCounts();
-
-            for (Map.Entry<Double, ClassStat> entry : counts.entrySet()) {
-                double splitValue = entry.getKey();
-                int[] splitClassCounts = entry.getValue().getCounts();
-
-                int leTotalCount = 0;
-                for (int i = 0; i < leClassCounts.length; i++) {
-                    leClassCounts[i] += splitClassCounts[i];
-                    leTotalCount += leClassCounts[i];
-                }
-                int gtTotalCount = node.getCount() - leTotalCount;
+            int bestIdx = -1;
+            NumAttrStat.NumAttrData data = ((NumAttrStat) node.getCount(attr)).getData();
+            int[] valueCounts = data.getCounts();
+            int[] valueClassCounts = data.getClassCounts();
+            sweep.reset(node.getClassCounts(), node.getCount());
 
-                double leEntropy = computeEntropy(leClassCounts, leTotalCount);
-                double leRatio = (double) leTotalCount / (double) node.getCount();
+            for (int idx = 0, offset = 0; idx < data.size(); idx++, offset += numClasses) {
+                sweep.move(valueClassCounts, offset, valueCounts[idx]);
 
-                int[] gtClassCounts = new int[numClasses];
-                for (int i = 0; i < numClasses; i++) {
-                    gtClassCounts[i] = totalClassCounts[i] - leClassCounts[i];
-                }
-                double gtEntropy = computeEntropy(gtClassCounts, gtTotalCount);
-                double gtRatio = (double) gtTotalCount / (double) node.getCount();
-
-                double entropy = leEntropy * leRatio + gtEntropy * gtRatio;
+                double entropy = sweep.getEntropy();
                 if (entropy < minEntropy) {
                     minEntropy = entropy;
-                    bestSplit = splitValue;
+                    bestIdx = idx;
                 }
             }
 
+            if (bestIdx >= 0) {
+                bestSplit = data.getSplitValue(bestIdx);
+            }
+
             sum = minEntropy;
+        } else if (attr.isBinarySplit()) {
+            return computeSubsetEntropySum(node, attr, sweep);
         } else {
-            for (int valueIndex = 0; valueIndex < attr.numValues(); valueIndex++) {
-                int count = node.getCount(attr, valueIndex);
+            DistAttrStat attrStat = (DistAttrStat) node.getCount(attr);
+            int[] counts = attrStat.getCounts();
+            int[] classCounts = attrStat.getClassCounts();
+            double totalCount = (double) node.getCount();
+
+            for (int row = 0, offset = 0; row < attrStat.getNumRows(); row++, offset += numClasses) {
+                int count = counts[row];
 
                 if (count > 0) {
-                    double entropy = computeEntropy(node, attr, valueIndex);
-                    double ratio = ((double) count / (double) node.getCount());
-                    sum += ratio * entropy;
+                    double entropy = computeEntropy(classCounts, offset, numClasses, count);
+                    sum += (count / totalCount) * entropy;
                 }
             }
         }
@@ -588,21 +1618,82 @@ public class VFDT extends OnlineModel implements Serializable
         return new Split(attr, sum, bestSplit);
     }
 
-    protected double computeEntropy(VNode node) {
-        double entropy = 0;
-        double totalCount = (double) node.getCount();
-        for (int classIndex = 0; classIndex < numClasses; classIndex++)
-        {
-            int count = node.getCount(classIndex);
+    /**
+     * Find the best binary split of a discrete attribute. The values are ordered by their share of the
+     * node's majority class, and the entropy of every cut of the order is computed in one sweep.
+     */
+    protected Split computeSubsetEntropySum(VNode node, Attribute attr, EntropySweep sweep) {
+        DistAttrStat attrStat = (DistAttrStat) node.getCount(attr);
+        int[] counts = attrStat.getCounts();
+        int[] classCounts = attrStat.getClassCounts();
+        int numRows = attrStat.getNumRows();
+
+        int keyClass = (int) node.getClassValue();
+        double[] keys = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            if (counts[row] > 0) {
+                keys[row] = (double) classCounts[row * numClasses + keyClass] / counts[row];
+            }
+        }
+        int[] order = orderValues(counts, numRows, keys);
+
+        sweep.reset(node.getClassCounts(), node.getCount());
+        double minEntropy = sweep.getEntropy();
+        int bestCut = -1;
+        for (int i = 0; i < order.length - 1; i++) {
+            sweep.move(classCounts, order[i] * numClasses, counts[order[i]]);
+
+            double entropy = sweep.getEntropy();
+            if (entropy < minEntropy) {
+                minEntropy = entropy;
+                bestCut = i;
+            }
+        }
 
-            if (count > 0)
-            {
-                double p = count / totalCount;
-                entropy -= p * Utils.log2(p);
+        return new Split(attr, minEntropy, getLeftValues(attrStat, order, bestCut));
+    }
+
+    /**
+     * @param counts instance counts by row of the statistics
+     * @param numRows
+     * @param keys sort keys by row
+     * @return the rows with instances, in ascending order of their keys
+     */
+    protected int[] orderValues(int[] counts, int numRows, final double[] keys) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int row = 0; row < numRows; row++) {
+            if (counts[row] > 0) {
+                values.add(row);
             }
         }
 
-        return entropy;
+        Collections.sort(values, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer v1, Integer v2) {
+                return Double.compare(keys[v1], keys[v2]);
+            }
+        });
+
+        int[] order = new int[values.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = values.get(i);
+        }
+        return order;
+    }
+
+    /**
+     * @return the values of the rows order[0..cut] of a binary split
+     */
+    protected boolean[] getLeftValues(DistAttrStat attrStat, int[] order, int cut) {
+        boolean[] leftValues = new boolean[attrStat.getNumValues()];
+        for (int i = 0; i <= cut; i++) {
+            leftValues[attrStat.getRowValue(order[i])] = true;
+        }
+        return leftValues;
+    }
+
+    protected double computeEntropy(VNode node) {
+        return computeEntropy(node.getClassCounts(), 0, numClasses, node.getCount());
     }
 
     /**
@@ -617,20 +1708,14 @@ public class VFDT extends OnlineModel implements Serializable
      * @throws Exception if computation fails
      */
     protected double computeEntropy(VNode node, Attribute attribute, int valueIndex) {
-        double entropy = 0;
-        double totalCount = (double) node.getCount(attribute, valueIndex);
-        for (int classIndex = 0; classIndex < numClasses; classIndex++)
-        {
-            int count = node.getCount(attribute, valueIndex, classIndex);
-
-            if (count > 0)
-            {
-                double p = count / totalCount;
-                entropy -= p * Utils.log2(p);
-            }
+        DistAttrStat attrStat = (DistAttrStat) node.getCount(attribute);
+        int row = attrStat.getRow(valueIndex);
+        if (row < 0) {
+            return 0d;
         }
 
-        return entropy;
+        return computeEntropy(attrStat.getClassCounts(), row * numClasses, numClasses,
+                attrStat.getCounts()[row]);
     }
 
     /**
@@ -638,18 +1723,18 @@ public class VFDT extends OnlineModel implements Serializable
      * @return
      */
     protected double computeEntropy(int[] classCounts, int totalCount) {
-        double entropy = 0d;
-
-        for (int i = 0; i < classCounts.length; i++) {
-            int count = classCounts[i];
-
-            if (count > 0) {
-                double p = (double) count / (double) totalCount;
-                entropy -= p * Utils.log2(p);
-            }
-        }
+        return computeEntropy(classCounts, 0, classCounts.length, totalCount);
+    }
 
-        return entropy;
+    /**
+     * @param classCounts
+     * @param offset index of the first class count
+     * @param length number of class counts
+     * @param totalCount
+     * @return entropy, or the impurity of the split criterion, of the class counts classCounts[offset, offset + length)
+     */
+    protected double computeEntropy(int[] classCounts, int offset, int length, int totalCount) {
+        return splitCriterion.getImpurity(classCounts, offset, length, totalCount);
     }
 
     protected double computeResidualSum(VNode node, Attribute attribute, double splitValue) {
@@ -660,8 +1745,11 @@ public class VFDT extends OnlineModel implements Serializable
         }
 
         if (attribute.isNumeric()) {
-            NumAttrStat attrStat = (NumAttrStat) node.getCount(attribute);
-            TreeMap<Double, ClassStat> counts = attrStat.getCounts();
+            NumAttrStat.NumAttrData data = ((NumAttrStat) node.getCount(attribute)).getData();
+            double[] values = data.getValues();
+            int[] counts = data.getCounts();
+            double[] sums = data.getSums();
+            double[] squaredSums = data.getSquaredSums();
 
             double totalSum = node.getClassSum();
             double totalSquaredSum = node.getClassSquaredSum();
@@ -674,15 +1762,14 @@ public class VFDT extends OnlineModel implements Serializable
             double gtSquaredSum = totalSquaredSum - leSquaredSum;
             int gtCount = totalCount - leCount;
 
-            for (Map.Entry<Double, ClassStat> entry : counts.entrySet()) {
-                if (splitValue < entry.getKey()) {
+            for (int idx = 0; idx < data.size(); idx++) {
+                if (splitValue < values[idx]) {
                     break;
                 }
 
-                ClassStat classStat = entry.getValue();
-                leSum += classStat.getSum();
-                leSquaredSum += classStat.getSquaredSum();
-                leCount += classStat.getCount();
+                leSum += sums[idx];
+                leSquaredSum += squaredSums[idx];
+                leCount += counts[idx];
 
                 gtSum = totalSum - leSum;
                 gtSquaredSum = totalSquaredSum - leSquaredSum;
@@ -695,16 +1782,76 @@ public class VFDT extends OnlineModel implements Serializable
             }
         } else {
             DistAttrStat attrStat = (DistAttrStat) node.getCount(attribute);
-            ClassStat[] classStats = attrStat.getCounts();
-            for (int valueIndex = 0; valueIndex < attribute.numValues(); valueIndex++) {
-                ClassStat classStat = classStats[valueIndex];
-                residualSum += computeResidual(classStat.getSum(), classStat.getSquaredSum(), classStat.getCount());
+            int[] counts = attrStat.getCounts();
+            double[] sums = attrStat.getSums();
+            double[] squaredSums = attrStat.getSquaredSums();
+            residualSum = 0d;
+            for (int row = 0; row < attrStat.getNumRows(); row++) {
+                if (counts[row] > 0) {
+                    residualSum += computeResidual(sums[row], squaredSums[row], counts[row]);
+                }
             }
         }
 
         return residualSum / computeResidual(node);
     }
 
+    /**
+     * Score the current split of an internal node on the scale of its candidate splits,
+     * see {@link #evaluateSplits(VNode, boolean)}.
+     *
+     * @param node
+     * @return scv of the split, Double.MAX_VALUE if the node has no statistics of its split attribute
+     */
+    protected double computeNodeSplitScv(VNode node) {
+        Attribute attribute = node.getAttribute();
+        boolean[] leftValues = node.getLeftValues();
+        AttrStat attrStat = node.getCount(attribute);
+        if (attrStat == null) {
+            return Double.MAX_VALUE;
+        }
+
+        if (classAttribute.isNumeric()) {
+            if (leftValues != null) {
+                return computeSubsetResidualSum(node, attribute, leftValues);
+            }
+            return computeResidualSum(node, attribute, node.getSplitValue());
+        }
+
+        EntropySweep sweep = getEntropySweep();
+        sweep.reset(node.getClassCounts(), node.getCount());
+        if (attribute.isNumeric()) {
+            NumAttrStat.NumAttrData data = ((NumAttrStat) attrStat).getData();
+            int[] valueCounts = data.getCounts();
+            int[] valueClassCounts = data.getClassCounts();
+            for (int idx = 0; idx < data.size() && data.getSplitValue(idx) <= node.getSplitValue(); idx++) {
+                sweep.move(valueClassCounts, idx * numClasses, valueCounts[idx]);
+            }
+            return sweep.getEntropy();
+        }
+
+        DistAttrStat distAttrStat = (DistAttrStat) attrStat;
+        int[] counts = distAttrStat.getCounts();
+        int[] classCounts = distAttrStat.getClassCounts();
+        if (leftValues != null) {
+            for (int row = 0; row < distAttrStat.getNumRows(); row++) {
+                int valueIndex = distAttrStat.getRowValue(row);
+                if (valueIndex < leftValues.length && leftValues[valueIndex]) {
+                    sweep.move(classCounts, row * numClasses, counts[row]);
+                }
+            }
+            return sweep.getEntropy();
+        }
+
+        double sum = 0d;
+        for (int row = 0, offset = 0; row < distAttrStat.getNumRows(); row++, offset += numClasses) {
+            if (counts[row] > 0) {
+                sum += ((double) counts[row] / node.getCount()) * computeEntropy(classCounts, offset, numClasses, counts[row]);
+            }
+        }
+        return sum;
+    }
+
     protected Split computeResidualSum(VNode node, Attribute attribute) {
         double residualSum = 0d;
         double bestSplit = 0d;
@@ -714,9 +1861,16 @@ public class VFDT extends OnlineModel implements Serializable
             throw new RuntimeException("It is not supported to compute residual sum for discrete class.");
         }
 
+        if (attribute.isBinarySplit()) {
+            return computeSubsetResidualSum(node, attribute);
+        }
+
         if (attribute.isNumeric()) {
-            NumAttrStat attrStat = (NumAttrStat) node.getCount(attribute);
-            TreeMap<Double, ClassStat> counts = attrStat.getCounts();
+            NumAttrStat.NumAttrData data = ((NumAttrStat) node.getCount(attribute)).getData();
+            double[] values = data.getValues();
+            int[] counts = data.getCounts();
+            double[] sums = data.getSums();
+            double[] squaredSums = data.getSquaredSums();
 
             //double totalSum = attrStat.getSum();
             double totalSum = node.getClassSum();
@@ -727,14 +1881,14 @@ public class VFDT extends OnlineModel implements Serializable
             int leCount = 0;
 
             double minResidualSum = Double.MAX_VALUE;
+            int bestIdx = -1;
 
-            for (Map.Entry<Double, ClassStat> entry : counts.entrySet()) {
-                double splitValue = entry.getKey();
-                ClassStat classStat = entry.getValue();
+            for (int idx = 0; idx < data.size(); idx++) {
+                double splitValue = values[idx];
 
-                leSum += classStat.getSum();
-                leSquaredSum += classStat.getSquaredSum();
-                leCount += classStat.getCount();
+                leSum += sums[idx];
+                leSquaredSum += squaredSums[idx];
+                leCount += counts[idx];
 
                 if (node.getAttribute() == attribute && splitValue == node.getSplitValue()) {
                     continue;
@@ -749,18 +1903,23 @@ public class VFDT extends OnlineModel implements Serializable
                             computeResidual(gtSum, gtSquaredSum, gtCount) / totalCount;
                     if (tmpResidualSum <= minResidualSum) {
                         minResidualSum = tmpResidualSum;
-                        bestSplit = splitValue;
+                        bestIdx = idx;
                     }
                 }
             }
 
+            if (bestIdx >= 0) {
+                bestSplit = data.getSplitValue(bestIdx);
+            }
+
             residualSum = minResidualSum;
         } else {
             DistAttrStat attrStat = (DistAttrStat) node.getCount(attribute);
-            ClassStat[] classStats = attrStat.getCounts();
-            for (int valueIndex = 0; valueIndex < attribute.numValues(); valueIndex++) {
-                ClassStat classStat = classStats[valueIndex];
-                residualSum += computeResidual(classStat.getSum(), classStat.getSquaredSum(), classStat.getCount());
+            int[] counts = attrStat.getCounts();
+            double[] sums = attrStat.getSums();
+            double[] squaredSums = attrStat.getSquaredSums();
+            for (int row = 0; row < attrStat.getNumRows(); row++) {
+                residualSum += computeResidual(sums[row], squaredSums[row], counts[row]);
             }
         }
 
@@ -769,6 +1928,91 @@ public class VFDT extends OnlineModel implements Serializable
         return new Split(attribute, residualSum, bestSplit);
     }
 
+    /**
+     * Find the best binary split of a discrete attribute for a numeric class. The values are ordered
+     * by their mean target, and the residual of every cut of the order is computed in one sweep.
+     */
+    protected Split computeSubsetResidualSum(VNode node, Attribute attribute) {
+        DistAttrStat attrStat = (DistAttrStat) node.getCount(attribute);
+        int[] counts = attrStat.getCounts();
+        double[] sums = attrStat.getSums();
+        double[] squaredSums = attrStat.getSquaredSums();
+        int numRows = attrStat.getNumRows();
+
+        double[] keys = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            if (counts[row] > 0) {
+                keys[row] = sums[row] / counts[row];
+            }
+        }
+        int[] order = orderValues(counts, numRows, keys);
+
+        double totalSum = node.getClassSum();
+        double totalSquaredSum = node.getClassSquaredSum();
+        int totalCount = node.getCount();
+
+        double leSum = 0d;
+        double leSquaredSum = 0d;
+        int leCount = 0;
+
+        // without a cut, the residual rate is the null value of a regression tree
+        double minResidualSum = 1d;
+        int bestCut = -1;
+        double nodeResidual = computeResidual(node);
+        for (int i = 0; i < order.length - 1; i++) {
+            leSum += sums[order[i]];
+            leSquaredSum += squaredSums[order[i]];
+            leCount += counts[order[i]];
+
+            int gtCount = totalCount - leCount;
+            if (gtCount > 0) {
+                double residualSum = (computeResidual(leSum, leSquaredSum, leCount) / totalCount +
+                        computeResidual(totalSum - leSum, totalSquaredSum - leSquaredSum, gtCount) / totalCount) /
+                        nodeResidual;
+                if (residualSum < minResidualSum) {
+                    minResidualSum = residualSum;
+                    bestCut = i;
+                }
+            }
+        }
+
+        return new Split(attribute, minResidualSum, getLeftValues(attrStat, order, bestCut));
+    }
+
+    /**
+     * @return residual rate of the binary split of a discrete attribute sending leftValues to the first branch
+     */
+    protected double computeSubsetResidualSum(VNode node, Attribute attribute, boolean[] leftValues) {
+        DistAttrStat attrStat = (DistAttrStat) node.getCount(attribute);
+        int[] counts = attrStat.getCounts();
+        double[] sums = attrStat.getSums();
+        double[] squaredSums = attrStat.getSquaredSums();
+
+        double leSum = 0d;
+        double leSquaredSum = 0d;
+        int leCount = 0;
+        for (int row = 0; row < attrStat.getNumRows(); row++) {
+            int valueIndex = attrStat.getRowValue(row);
+            if (valueIndex < leftValues.length && leftValues[valueIndex]) {
+                leSum += sums[row];
+                leSquaredSum += squaredSums[row];
+                leCount += counts[row];
+            }
+        }
+
+        int totalCount = node.getCount();
+        int gtCount = totalCount - leCount;
+        double residualSum = 0d;
+        if (leCount > 0) {
+            residualSum += computeResidual(leSum, leSquaredSum, leCount);
+        }
+        if (gtCount > 0) {
+            residualSum += computeResidual(node.getClassSum() - leSum, node.getClassSquaredSum() - leSquaredSum, gtCount);
+        }
+
+        return residualSum / totalCount / computeResidual(node);
+    }
+
     /**
      *
      * @param sum
@@ -845,8 +2089,13 @@ public class VFDT extends OnlineModel implements Serializable
         return ret.toString();
     }
 
+    /**
+     * Instances buffered in mini batch mode are trained, and background split checks applied,
+     * before the scoring model is built.
+     */
     @Override
     public OnlineModel getScoringModel() {
+        flush();
         SDT tree = new SDT("VFDT", root.getSDT(), attributes, classAttribute, treeType, numSampledFeatures);
         return tree;
     }
@@ -868,6 +2117,8 @@ public class VFDT extends OnlineModel implements Serializable
         pr.put("VFDT.CheckNodeSplitCount", (double) profiler.getCheckNodeSplitCount());
         pr.put("VFDT.CheckNodeSplitCost", profiler.getCheckNodeSplitCost());
         pr.put("VFDT.Preprune", (double) profiler.getNumPreprune());
+        pr.put("VFDT.Deactivation", (double) profiler.getNumDeactivation());
+        pr.put("VFDT.Reactivation", (double) profiler.getNumReactivation());
 
         pr.put("VFDT.TreeSize", (double) profiler.getTreeSize());
         pr.put("VFDT.TotalSplit", (double) profiler.getNumTotalSplit());
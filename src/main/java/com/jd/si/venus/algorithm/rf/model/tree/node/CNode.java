@@ -4,10 +4,8 @@ package com.jd.si.venus.algorithm.rf.model.tree.node;
 
 import com.jd.si.venus.algorithm.rf.model.core.Attribute;
 import com.jd.si.venus.algorithm.rf.model.core.Instance;
-import com.jd.si.venus.algorithm.rf.model.core.InstanceId;
 import com.jd.si.venus.algorithm.rf.model.tree.CVFDT;
 import com.jd.si.venus.algorithm.rf.model.tree.profiler.CVFDTProfiler;
-import com.jd.si.venus.algorithm.rf.model.tree.split.AttrStat;
 import com.jd.si.venus.algorithm.rf.model.tree.split.TestStats;
 
 import java.util.*;
@@ -32,10 +30,16 @@ public class CNode extends VNode
     protected Map<Attribute, TestStats> altStats = new LinkedHashMap<Attribute, TestStats>();
 
     /**
-     * @see com.jd.si.venus.algorithm.rf.model.core.InstanceId
+     * @see com.jd.si.venus.algorithm.rf.model.core.InstanceWindow#getId(int)
      */
     protected int id;
 
+    /**
+     * Whether this node was removed from the tree, with a pruned or replaced subtree.
+     * @see PathWindow
+     */
+    protected boolean detached = false;
+
     /**
      * Number of instances until entering/exiting next test phase.
      */
@@ -53,6 +57,26 @@ public class CNode extends VNode
      */
     protected boolean testMode = false;
 
+    /**
+     * A frozen internal node keeps no attribute statistics, and its split is not rechecked any more.
+     */
+    protected boolean frozen = false;
+
+    /**
+     * Number of consecutive split rechecks without alternative trees.
+     */
+    protected int quietRechecks = 0;
+
+    /**
+     * Number of instances routed through this internal node since its split was last rechecked.
+     */
+    protected int recheckInstances = 0;
+
+    /**
+     * In a lazy mode, whether the statistics of this internal node are being populated for the next recheck.
+     */
+    protected boolean populating = false;
+
     public CNode(List<Attribute> attributes, Attribute classAttribute, int id, double parentClassValue,
                    int numSampledFeatures, int height) {
         //         int numSampledFeatures, double minAltErrorDiff) {
@@ -86,6 +110,10 @@ public class CNode extends VNode
             this.altNodes = cnode.altNodes;
             this.altStats = cnode.altStats;
             this.testStats = cnode.testStats;
+            this.frozen = cnode.frozen;
+            this.quietRechecks = cnode.quietRechecks;
+            this.recheckInstances = cnode.recheckInstances;
+            this.populating = cnode.populating;
             //this.bestScv = cnode.bestScv;
             //this.minAltErrorDiff = cnode.minAltErrorDiff;
         }
@@ -111,21 +139,65 @@ public class CNode extends VNode
         if (sampledFeatures != null) {
             this.sampledFeatures = sampledFeatures;
             this.numSampledFeatures = sampledFeatures.length;
-            counts = new AttrStat[numTotalFeatures];
-            if (numSampledFeatures > 0) {
-                for (int i = 0; i < numSampledFeatures; i++) {
-                    Attribute attribute = attributes.get(sampledFeatures[i]);
-                    this.counts[sampledFeatures[i]] = AttrStat.getAttrStat(attribute, classAttribute);
-                }
-            } else {
-                for (int i = 0; i < numTotalFeatures; i++) {
-                    Attribute attribute = attributes.get(i);
-                    this.counts[i] = AttrStat.getAttrStat(attribute, classAttribute);
-                }
-            }
+            initAttrStats();
         }
     }
 
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    public int getRecheckInstances() {
+        return recheckInstances;
+    }
+
+    public void incrementRecheckInstances() {
+        recheckInstances++;
+    }
+
+    public void resetRecheckInstances() {
+        recheckInstances = 0;
+    }
+
+    public boolean isPopulating() {
+        return populating;
+    }
+
+    public void setPopulating(boolean populating) {
+        this.populating = populating;
+    }
+
+    /**
+     * Count a split recheck of this internal node, and freeze it if it had no alternative trees
+     * for the given number of consecutive rechecks.
+     *
+     * @param freezeQuietRechecks 0 to never freeze
+     * @return whether the node has been frozen
+     */
+    public boolean updateQuietRechecks(int freezeQuietRechecks) {
+        if (!altNodes.isEmpty()) {
+            quietRechecks = 0;
+            return false;
+        }
+
+        quietRechecks++;
+        if (freezeQuietRechecks > 0 && quietRechecks >= freezeQuietRechecks) {
+            frozen = true;
+            counts = null;
+            altStats.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * An internal node being populated keeps its statistics up to date in a lazy mode as well.
+     */
+    @Override
+    protected boolean keepsAttrStats(CVFDT.StatMode statMode) {
+        return !frozen && (super.keepsAttrStats(statMode) || populating && !inactive && counts != null);
+    }
+
     public Collection<CNode> getAlternativeTrees() {
         return altNodes.values();
     }
@@ -197,10 +269,20 @@ public class CNode extends VNode
     }
 
     public void addAlternativeNode(Instance instance, Attribute attribute, int newId, double splitValue) {
+        addAlternativeNode(instance, attribute, newId, splitValue, null);
+    }
+
+    /**
+     * @param leftValues values going to the first successor of a binary split on a discrete attribute,
+     *                   null for one successor per value
+     */
+    public void addAlternativeNode(Instance instance, Attribute attribute, int newId, double splitValue,
+                                   boolean[] leftValues) {
         // create the alternative node and immediately split it on the new attribute
         //CNode node = new CNode(instance, classAttribute, newId, parentClassValue, numSampledFeatures, minAltErrorDiff);
         CNode node = new CNode(instance, classAttribute, newId, parentClassValue, numSampledFeatures, height);
         node.splitValue = splitValue;
+        node.leftValues = leftValues;
         //node.bestScv = scv;
         node.split(attribute, instance, newId);
         node.setSampledFeatures(this.sampledFeatures);
@@ -214,7 +296,11 @@ public class CNode extends VNode
         }
 
         altStats.put(attribute, stats);
-        altNodes.put(attribute, node);
+        // an alternative tree on the same attribute with another split value is replaced
+        CNode replaced = altNodes.put(attribute, node);
+        if (replaced != null) {
+            replaced.detach();
+        }
     }
 
     /**
@@ -227,6 +313,7 @@ public class CNode extends VNode
         CNode bestAlt = null;
         double bestErrorDiff = 0;
         double mainError = getTestError();
+        List<CNode> prunedAlts = new ArrayList<CNode>();
         Iterator<Attribute> iter = altNodes.keySet().iterator();
         while (iter.hasNext()) {
             Attribute attribute = iter.next();
@@ -254,6 +341,7 @@ public class CNode extends VNode
                     iter.remove();
                     altStats.remove(attribute);
                     profiler.pruneALT(alt);
+                    prunedAlts.add(alt);
                 }
 
                 // remember the alternative node with the best error
@@ -271,12 +359,32 @@ public class CNode extends VNode
         // one of the alternative trees is better than the current tree!
         // replace this node with the alternative node
         if (bestAlt != null) {
+            VNode[] replacedSuccessors = this.successors;
+            Collection<CNode> replacedAlts = this.altNodes.values();
             this.copyNode(bestAlt);
             // remove the alternative node which was promoted
             // from the list of alternative nodes
             this.altNodes.remove(bestAttribute);
             this.altStats.remove(bestAttribute);
             profiler.activateALT(bestAlt);
+
+            // the promoted node lives on in this node, with its subtree
+            bestAlt.detached = true;
+            if (replacedSuccessors != null) {
+                for (VNode successor : replacedSuccessors) {
+                    ((CNode) successor).detach();
+                }
+            }
+            for (CNode alt : replacedAlts) {
+                if (alt != bestAlt) {
+                    alt.detach();
+                }
+            }
+        }
+        for (CNode alt : prunedAlts) {
+            if (alt != bestAlt) {
+                alt.detach();
+            }
         }
 
         this.testStats.reset();
@@ -301,41 +409,41 @@ public class CNode extends VNode
     }
 
     /**
-     * Populate attribute statistics from window
+     * Populate attribute statistics from window, for the nodes being populated
      */
-    public void populateStats(InstanceId instanceId) {
+    public void populateStats(Instance instance, int instanceId) {
         if (attribute == null) {
             return;
         }
 
         // populate current node
-        if (instanceId.getId() >= id) {
-            incrementCounts(instanceId.getInstance(), CVFDT.StatMode.POPULATE);
+        if (populating && instanceId >= id) {
+            incrementCounts(instance, CVFDT.StatMode.POPULATE);
         }
 
         // populate alt
         for (CNode alt : altNodes.values()) {
-            alt.populateStats(instanceId);
+            alt.populateStats(instance, instanceId);
         }
 
         // populate child node
-        CNode child = null;
-        if (attribute.isNumeric()) {
-            if (instanceId.getInstance().value(attribute) <= splitValue) {
-                child = getSuccessor(0);
-            } else {
-                child = getSuccessor(1);
-            }
-        } else {
-            child = getSuccessor((int) instanceId.getInstance().value(attribute));
-        }
-        child.populateStats(instanceId);
+        CNode child = getSuccessor(getBranch(instance.value(attribute)));
+        child.populateStats(instance, instanceId);
     }
 
     public void clearCounts() {
         counts = null;
     }
 
+    /**
+     * Allocate the attribute statistics of this internal node only, to populate them from the window.
+     */
+    public void initNodeCounts() {
+        if (attribute != null && !frozen) {
+            initAttrStats();
+        }
+    }
+
     public void initCounts() {
         if (attribute == null) {
             return;
@@ -344,17 +452,8 @@ public class CNode extends VNode
         assert(counts == null);
 
         // init statistics
-        counts = new AttrStat[numTotalFeatures];
-        if (numSampledFeatures > 0) {
-            for (int i = 0; i < numSampledFeatures; i++) {
-                Attribute attribute = attributes.get(sampledFeatures[i]);
-                this.counts[sampledFeatures[i]] = AttrStat.getAttrStat(attribute, classAttribute);
-            }
-        } else {
-            for (int i = 0; i < numTotalFeatures; i++) {
-                Attribute attribute = attributes.get(i);
-                this.counts[i] = AttrStat.getAttrStat(attribute, classAttribute);
-            }
+        if (!frozen) {
+            initAttrStats();
         }
 
         // init alt nodes
@@ -363,7 +462,7 @@ public class CNode extends VNode
         }
 
         // init child nodes
-        for (int i = 0; i < attribute.numValues(); i++) {
+        for (int i = 0; i < successors.length; i++) {
             getSuccessor(i).initCounts();
         }
     }
@@ -377,10 +476,10 @@ public class CNode extends VNode
      * assigns the specified id to the VNode.
      */
     public void split(Attribute attribute, Instance instance, int id, CVFDT.StatMode statMode) {
-        this.successors = new CNode[attribute.numValues()];
+        this.successors = new CNode[getNumSuccessors(attribute)];
         this.attribute = attribute;
 
-        for (int valueIndex = 0; valueIndex < attribute.numValues(); valueIndex++) {
+        for (int valueIndex = 0; valueIndex < successors.length; valueIndex++) {
             this.successors[valueIndex] = new CNode(instance, classAttribute, id, getScoreValue(),
                     numSampledFeatures, height + 1);
         }
@@ -390,13 +489,52 @@ public class CNode extends VNode
         }
     }
 
+    @Override
+    protected VNode[] newSuccessors(int numValues) {
+        return new CNode[numValues];
+    }
+
+    /**
+     * A grown successor gets the id of this node. Instances with a new value are routed
+     * to it only after it is created, and all of them carry an id not less than this one.
+     */
+    @Override
+    protected VNode newSuccessor() {
+        return new CNode(attributes, classAttribute, id, getScoreValue(), numSampledFeatures, height + 1);
+    }
+
     /**
-     * @see InstanceId
+     * @see #populateStats(Instance, int)
      */
     public int getId() {
         return id;
     }
 
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Mark this node and the nodes below it, including their alternative trees, as removed from the tree.
+     * Their statistics are released, as a detached node is never updated again, but the window paths
+     * keep referring to it until they expire.
+     */
+    protected void detach() {
+        detached = true;
+        for (CNode alt : altNodes.values()) {
+            alt.detach();
+        }
+        if (successors != null) {
+            for (VNode successor : successors) {
+                ((CNode) successor).detach();
+            }
+        }
+
+        counts = null;
+        altNodes.clear();
+        altStats.clear();
+    }
+
     @Override
     public String toString() {
         return toString(this, "", null, false);
@@ -526,6 +664,8 @@ public class CNode extends VNode
             }
 
             text.append(String.format("%.2f", splitValue));
+        } else if (leftValues != null) {
+            text.append(i == 0 ? "in " : "not in ").append(getLeftValuesText());
         } else {
             text.append("= ").append(attribute.value(i));
         }
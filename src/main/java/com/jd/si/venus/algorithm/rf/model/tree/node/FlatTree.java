@@ -0,0 +1,131 @@
+package com.jd.si.venus.algorithm.rf.model.tree.node;
+
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled form of a {@link Node} tree for scoring only.
+ *
+ * Nodes are laid out in breadth first order in parallel arrays, so the successors of a node
+ * occupy consecutive slots starting at {@code childOffset[node]}. Scoring walks the arrays with
+ * an iterative loop instead of chasing {@code Node} references.
+ */
+public class FlatTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Attribute index used for splitting, -1 for a leaf node. */
+    protected int[] featureIndex;
+    /** Split value for a numeric attribute splitting. */
+    protected double[] threshold;
+    /** Whether the split attribute is numeric. */
+    protected boolean[] numeric;
+    /** Values going to the first successor of a binary discrete split, null for one successor per value. */
+    protected boolean[][] leftValues;
+    /** Slot of the first successor. */
+    protected int[] childOffset;
+    /** Number of successors. */
+    protected int[] childCount;
+    /** Score value of every node. */
+    protected double[] leafValue;
+
+    public FlatTree(Node root) {
+        int size = root.getTreeSize();
+        featureIndex = new int[size];
+        threshold = new double[size];
+        numeric = new boolean[size];
+        leftValues = new boolean[size][];
+        childOffset = new int[size];
+        childCount = new int[size];
+        leafValue = new double[size];
+
+        // breadth first, so that the successors of a node are assigned consecutive slots
+        List<Node> queue = new ArrayList<Node>(size);
+        queue.add(root);
+        int next = 1;
+        for (int slot = 0; slot < queue.size(); slot++) {
+            Node node = queue.get(slot);
+            leafValue[slot] = node.getScoreValue();
+
+            if (node.getAttribute() == null) {
+                featureIndex[slot] = -1;
+            } else {
+                featureIndex[slot] = node.getAttribute().index();
+                numeric[slot] = node.getAttribute().isNumeric();
+                threshold[slot] = node.splitValue;
+                leftValues[slot] = node.leftValues;
+                childOffset[slot] = next;
+                childCount[slot] = node.successors.length;
+                for (Node successor : node.successors) {
+                    queue.add(successor);
+                }
+                next += node.successors.length;
+            }
+        }
+    }
+
+    /**
+     * @param values attribute values indexed by {@code Attribute#index()}
+     * @return the slot of the leaf node for the given values, or the slot of the deepest node
+     *         if a discrete value is appended to a growable attribute after compiling
+     */
+    public int getLeafIndex(double[] values) {
+        int node = 0;
+        int feature;
+        while ((feature = featureIndex[node]) >= 0) {
+            if (numeric[node]) {
+                node = childOffset[node] + (values[feature] <= threshold[node] ? 0 : 1);
+            } else if (leftValues[node] != null) {
+                node = childOffset[node] + getBranch(leftValues[node], (int) values[feature]);
+            } else {
+                int value = (int) values[feature];
+                if (value >= childCount[node]) {
+                    break;
+                }
+                node = childOffset[node] + value;
+            }
+        }
+
+        return node;
+    }
+
+    private static int getBranch(boolean[] leftValues, int value) {
+        return value < leftValues.length && leftValues[value] ? 0 : 1;
+    }
+
+    public double score(double[] values) {
+        return leafValue[getLeafIndex(values)];
+    }
+
+    /**
+     * Score a batch of instances stored column by column.
+     * @param columns encoded values, columns[attribute index][row]
+     * @param numRows
+     * @param out
+     */
+    public void score(double[][] columns, int numRows, double[] out) {
+        for (int row = 0; row < numRows; row++) {
+            int node = 0;
+            int feature;
+            while ((feature = featureIndex[node]) >= 0) {
+                if (numeric[node]) {
+                    node = childOffset[node] + (columns[feature][row] <= threshold[node] ? 0 : 1);
+                } else if (leftValues[node] != null) {
+                    node = childOffset[node] + getBranch(leftValues[node], (int) columns[feature][row]);
+                } else {
+                    int value = (int) columns[feature][row];
+                    if (value >= childCount[node]) {
+                        break;
+                    }
+                    node = childOffset[node] + value;
+                }
+            }
+            out[row] = leafValue[node];
+        }
+    }
+
+    public int size() {
+        return featureIndex.length;
+    }
+}
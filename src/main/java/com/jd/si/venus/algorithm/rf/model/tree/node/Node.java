@@ -27,6 +27,8 @@ public class Node implements Serializable {
 
     /** Split value for a numeric attribute splitting. */
     protected double splitValue;
+    /** Values going to the first successor of a binary discrete attribute splitting, null for one successor per value. */
+    protected boolean[] leftValues;
 
     /** Class value if node is leaf. */
     protected double classValue;
@@ -52,6 +54,14 @@ public class Node implements Serializable {
         this.scoreValue = scoreValue;
     }
 
+    public Node(Node[] successors, Attribute attribute, Attribute classAttribute, List<Attribute> attributes,
+                double splitValue, boolean[] leftValues, double classValue, int totalCount, int[] sampledFeatures,
+                double scoreValue) {
+        this(successors, attribute, classAttribute, attributes, splitValue, classValue, totalCount, sampledFeatures,
+                scoreValue);
+        this.leftValues = leftValues;
+    }
+
     public int getTreeSize() {
         if (successors != null) {
             int count = 0;
@@ -101,8 +111,16 @@ public class Node implements Serializable {
                 childNode = node.getSuccessor(1);
             }
             return getLeafNode(childNode, instance);
+        } else if (node.leftValues != null) {
+            int attributeValue = (int) instance.value(node.getAttribute());
+            boolean left = attributeValue < node.leftValues.length && node.leftValues[attributeValue];
+            return getLeafNode(node.getSuccessor(left ? 0 : 1), instance);
         } else {
             int attributeValue = (int) instance.value(node.getAttribute());
+            // the value is appended to a growable attribute after this tree was built
+            if (attributeValue >= node.successors.length) {
+                return node;
+            }
             Node childNode = node.getSuccessor(attributeValue);
             return getLeafNode(childNode, instance);
         }
@@ -209,6 +227,16 @@ public class Node implements Serializable {
             }
 
             text.append(String.format("%.2f", splitValue));
+        } else if (leftValues != null) {
+            text.append(i == 0 ? "in {" : "not in {");
+            String separator = "";
+            for (int valueIndex = 0; valueIndex < leftValues.length; valueIndex++) {
+                if (leftValues[valueIndex]) {
+                    text.append(separator).append(attribute.value(valueIndex));
+                    separator = ", ";
+                }
+            }
+            text.append("}");
         } else {
             text.append("= ").append(attribute.value(i));
         }
@@ -0,0 +1,108 @@
+package com.jd.si.venus.algorithm.rf.model.tree.node;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The nodes whose counts each instance of the CVFDT window incremented, first in first out,
+ * so that an expiring instance could decrement them without routing it again.
+ *
+ * A path stays valid as the tree changes. Nodes split afterwards get successors with ids greater
+ * than the ids of the instances already in the window, which never count them. A node replaced by
+ * an alternative tree keeps its object and takes the statistics and the subtree of the alternative
+ * tree, which is on the path as well. The nodes pruned or replaced are marked detached, and skipped.
+ *
+ * The nodes of all paths are kept in one ring which grows as needed, the lengths in a ring of
+ * the window capacity.
+ */
+public class PathWindow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected CNode[] nodes;
+    // slot of the first node of the oldest path
+    protected int nodeHead;
+    protected int numNodes;
+
+    protected int[] lengths;
+    // slot of the oldest path
+    protected int head;
+    protected int size;
+
+    public PathWindow(int capacity) {
+        this.nodes = new CNode[Math.max(16, Math.min(capacity, 1024) * 8)];
+        this.lengths = new int[capacity];
+    }
+
+    /**
+     * Append a path.
+     * @param path
+     */
+    public void add(List<CNode> path) {
+        if (size == lengths.length) {
+            throw new RuntimeException("Path window is full, capacity " + lengths.length);
+        }
+        if (numNodes + path.size() > nodes.length) {
+            grow(numNodes + path.size());
+        }
+
+        int slot = (nodeHead + numNodes) % nodes.length;
+        for (CNode node : path) {
+            nodes[slot] = node;
+            slot = slot + 1 == nodes.length ? 0 : slot + 1;
+        }
+        numNodes += path.size();
+
+        int pathSlot = (head + size) % lengths.length;
+        lengths[pathSlot] = path.size();
+        size++;
+    }
+
+    /**
+     * @param index 0 for the oldest path
+     * @return number of nodes on the path
+     */
+    public int getLength(int index) {
+        return lengths[(head + index) % lengths.length];
+    }
+
+    /**
+     * @param position position of the node in all paths, from 0 for the first node of the oldest path
+     */
+    public CNode getNode(int position) {
+        return nodes[(nodeHead + position) % nodes.length];
+    }
+
+    /**
+     * Drop the oldest path.
+     */
+    public void removeFirst() {
+        if (size == 0) {
+            throw new RuntimeException("Path window is empty.");
+        }
+        int length = lengths[head];
+        for (int i = 0; i < length; i++) {
+            nodes[(nodeHead + i) % nodes.length] = null;
+        }
+        nodeHead = (nodeHead + length) % nodes.length;
+        numNodes -= length;
+        head = (head + 1) % lengths.length;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return lengths.length;
+    }
+
+    protected void grow(int minNodes) {
+        CNode[] grown = new CNode[Math.max(minNodes, nodes.length * 2)];
+        for (int i = 0; i < numNodes; i++) {
+            grown[i] = nodes[(nodeHead + i) % nodes.length];
+        }
+        nodes = grown;
+        nodeHead = 0;
+    }
+}
@@ -26,6 +26,8 @@ public class VNode implements Serializable
     protected Attribute attribute;
     /** Split value for a numeric attribute splitting. */
     protected double splitValue;
+    /** Values going to the first successor of a binary discrete attribute splitting, null for one successor per value. */
+    protected boolean[] leftValues;
 
     /** Class value if node is leaf. */
     protected double classValue;
@@ -57,8 +59,27 @@ public class VNode implements Serializable
 
     protected int height = 0;
 
+    // attributes whose statistics were released by poor attribute removal, null if none
+    protected boolean[] removedAttributes;
+
+    // an inactive leaf keeps its counts and prediction, but no attribute statistics
+    protected boolean inactive = false;
+
+    // count at which the next split check is due with adaptive grace period, 0 if not estimated
+    protected int nextSplitCheck = 0;
+
+    // best scv of each attribute at its last evaluation and the count then, null if not cached
+    protected double[] cachedScvs;
+    protected int[] cachedCounts;
+
+    /** Group of this leaf in a mini batch under training plus one, 0 if none. */
+    protected transient int batchGroup;
+
     //protected double bestScv = 0d;
 
+    protected VNode() {
+    }
+
     public VNode(List<Attribute> attributes, Attribute classAttribute, int height) {
         this(attributes, classAttribute, 0, height);
     }
@@ -97,23 +118,24 @@ public class VNode implements Serializable
         }
 
         this.numSampledFeatures = numSampledFeatures;
-
-        this.counts = new AttrStat[numTotalFeatures];
+        this.removedAttributes = null;
+        this.nextSplitCheck = 0;
+        this.inactive = false;
+        clearCachedScvs();
 
         if (numSampledFeatures > 0) {
             sampledFeatures = new int[numSampledFeatures];
             sample(sampledFeatures, numSampledFeatures);
-
-            for (int i = 0; i < numSampledFeatures; i++) {
-                Attribute attribute = attributes.get(sampledFeatures[i]);
-                this.counts[sampledFeatures[i]] = AttrStat.getAttrStat(attribute, classAttribute);
-            }
-        } else {
-            for (int i = 0; i < numTotalFeatures; i++) {
-                Attribute attribute = attributes.get(i);
-                this.counts[i] = AttrStat.getAttrStat(attribute, classAttribute);
-            }
         }
+        initAttrStats();
+    }
+
+    /**
+     * Create the slots of the attribute statistics. The statistics of an attribute are created when
+     * the first instance is counted, see {@link #adjustCount(Attribute, Instance, int)}.
+     */
+    protected void initAttrStats() {
+        this.counts = new AttrStat[numTotalFeatures];
     }
 
     /**
@@ -151,6 +173,7 @@ public class VNode implements Serializable
         this.successors = node.successors;
         this.attribute = node.attribute;
         this.splitValue = node.splitValue;
+        this.leftValues = node.leftValues;
         this.classValue = node.classValue;
         this.parentClassValue = node.parentClassValue;
         this.nScoreMin = node.nScoreMin;
@@ -166,6 +189,159 @@ public class VNode implements Serializable
         this.sampledFeatures = node.sampledFeatures;
         this.numTotalFeatures = node.numTotalFeatures;
         this.height = node.height;
+        this.nextSplitCheck = node.nextSplitCheck;
+        this.cachedScvs = node.cachedScvs;
+        this.cachedCounts = node.cachedCounts;
+        this.removedAttributes = node.removedAttributes;
+        this.inactive = node.inactive;
+    }
+
+    /**
+     * @return a leaf with a deep copy of the statistics of this node, for evaluating
+     *         its splits while this node keeps training
+     */
+    public VNode copyStats() {
+        VNode copy = new VNode();
+        copy.copyNode(this);
+        copy.successors = null;
+        copy.attribute = null;
+
+        copy.counts = new AttrStat[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != null) {
+                copy.counts[i] = counts[i].copy();
+            }
+        }
+        if (classCounts != null) {
+            copy.classCounts = classCounts.clone();
+        }
+        if (removedAttributes != null) {
+            copy.removedAttributes = removedAttributes.clone();
+        }
+        if (cachedScvs != null) {
+            copy.cachedScvs = cachedScvs.clone();
+            copy.cachedCounts = cachedCounts.clone();
+        }
+        return copy;
+    }
+
+    /**
+     * @return group of this leaf in a mini batch under training, -1 if none
+     */
+    public int getBatchGroup() {
+        return batchGroup - 1;
+    }
+
+    public void setBatchGroup(int batchGroup) {
+        this.batchGroup = batchGroup + 1;
+    }
+
+    /**
+     * Release the statistics of an attribute which can not be the best split of this leaf,
+     * and stop updating them.
+     * @param attributeIndex
+     */
+    public void removeAttribute(int attributeIndex) {
+        if (removedAttributes == null) {
+            removedAttributes = new boolean[numTotalFeatures];
+        }
+        removedAttributes[attributeIndex] = true;
+        counts[attributeIndex] = null;
+    }
+
+    public boolean isAttributeRemoved(int attributeIndex) {
+        return removedAttributes != null && removedAttributes[attributeIndex];
+    }
+
+    public boolean isActive() {
+        return !inactive;
+    }
+
+    /**
+     * Release the attribute statistics of this leaf. It keeps routing and updating its class counts.
+     */
+    public void deactivate() {
+        inactive = true;
+        counts = null;
+        removedAttributes = null;
+        clearCachedScvs();
+    }
+
+    /**
+     * Create empty attribute statistics for an inactive leaf. Its counts are kept, so the statistics
+     * must be populated with the instances counted since, or the counts reset.
+     */
+    public void activate() {
+        inactive = false;
+        initAttrStats();
+    }
+
+    /**
+     * @return estimated bytes of the statistics of this node
+     */
+    public long getMemorySize() {
+        long size = 64;
+        if (classCounts != null) {
+            size += 16 + 4 * classCounts.length;
+        }
+        if (cachedScvs != null) {
+            size += 32 + 12 * cachedScvs.length;
+        }
+        if (counts != null) {
+            size += 16 + 8 * counts.length;
+            for (AttrStat attrStat : counts) {
+                if (attrStat != null) {
+                    size += attrStat.getMemorySize();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of instances misclassified by this node, or its residual sum of squares for a numeric class
+     */
+    public double getError() {
+        if (classAttribute.isNumeric()) {
+            return totalCount > 0 ? Math.max(0d, classSquaredSum - classSum * classSum / totalCount) : 0d;
+        }
+        return totalCount - classCount;
+    }
+
+    /**
+     * @return count of this node when the scv of the attribute was cached, 0 if not cached
+     */
+    public int getCachedCount(int attributeIndex) {
+        return cachedCounts != null ? cachedCounts[attributeIndex] : 0;
+    }
+
+    public double getCachedScv(int attributeIndex) {
+        return cachedScvs[attributeIndex];
+    }
+
+    /**
+     * Cache the best scv of the attribute at the current count.
+     */
+    public void cacheScv(int attributeIndex, double scv) {
+        if (cachedScvs == null) {
+            cachedScvs = new double[numTotalFeatures];
+            cachedCounts = new int[numTotalFeatures];
+        }
+        cachedScvs[attributeIndex] = scv;
+        cachedCounts[attributeIndex] = totalCount;
+    }
+
+    public void clearCachedScvs() {
+        cachedScvs = null;
+        cachedCounts = null;
+    }
+
+    public int getNextSplitCheck() {
+        return nextSplitCheck;
+    }
+
+    public void setNextSplitCheck(int nextSplitCheck) {
+        this.nextSplitCheck = nextSplitCheck;
     }
 
     public int[] getSampledFeatures() {
@@ -220,20 +396,75 @@ public class VNode implements Serializable
         // this is a leaf node, so return this node
         if (node.getAttribute() == null) {
             return node;
-        } else if (node.getAttribute().isNumeric()) {
-            double attributeValue = (double) instance.value(node.getAttribute());
-            VNode childNode = null;
-            if (attributeValue <= node.splitValue) {
-                childNode = node.getSuccessor(0);
-            } else {
-                childNode = node.getSuccessor(1);
+        }
+
+        return getLeafNode(node.getSuccessor(node.getBranch(instance.value(node.getAttribute()))), instance);
+    }
+
+    /**
+     * Find the node scoring the given instance. Unlike {@link #getLeafNode(Instance)}, no successor is
+     * added, a value the split of a node has no successor for is scored by that node.
+     */
+    public VNode getScoringNode(Instance instance) {
+        return getScoringNode(instance.getValues());
+    }
+
+    /**
+     * @param values encoded values indexed by {@code Attribute#index()}
+     * @see #getScoringNode(Instance)
+     */
+    public VNode getScoringNode(double[] values) {
+        VNode node = this;
+        while (node.getAttribute() != null) {
+            double attributeValue = values[node.getAttribute().index()];
+            if (!node.getAttribute().isNumeric() && node.leftValues == null
+                    && (int) attributeValue >= node.successors.length) {
+                break;
             }
-            return getLeafNode(childNode, instance);
-        } else {
-            int attributeValue = (int) instance.value(node.getAttribute());
-            VNode childNode = node.getSuccessor(attributeValue);
-            return getLeafNode(childNode, instance);
+            node = node.getSuccessor(node.getBranch(attributeValue));
+        }
+
+        return node;
+    }
+
+    /**
+     * @param attributeValue value of the split attribute
+     * @return index of the successor for the value. A value appended to the growable split attribute
+     *         after this node was split goes to the second successor of a binary split, or gets a new one.
+     */
+    public int getBranch(double attributeValue) {
+        if (attribute.isNumeric()) {
+            return attributeValue <= splitValue ? 0 : 1;
+        }
+
+        int valueIndex = (int) attributeValue;
+        if (leftValues != null) {
+            return valueIndex < leftValues.length && leftValues[valueIndex] ? 0 : 1;
+        }
+        if (valueIndex >= successors.length) {
+            growSuccessors();
         }
+        return valueIndex;
+    }
+
+    /**
+     * Add successors for values appended to the growable split attribute after this node was split.
+     */
+    public void growSuccessors() {
+        VNode[] grown = newSuccessors(attribute.numValues());
+        System.arraycopy(successors, 0, grown, 0, successors.length);
+        for (int valueIndex = successors.length; valueIndex < grown.length; valueIndex++) {
+            grown[valueIndex] = newSuccessor();
+        }
+        successors = grown;
+    }
+
+    protected VNode[] newSuccessors(int numValues) {
+        return new VNode[numValues];
+    }
+
+    protected VNode newSuccessor() {
+        return new VNode(attributes, classAttribute, getScoreValue(), numSampledFeatures, height + 1);
     }
     
     /**
@@ -284,19 +515,30 @@ public class VNode implements Serializable
     }
 
     public void split(Attribute attribute, Instance instance, boolean lazyMode) {
-        this.successors = new VNode[attribute.numValues()];
+        this.successors = new VNode[getNumSuccessors(attribute)];
         this.attribute = attribute;
 
-        for (int valueIndex = 0; valueIndex < attribute.numValues(); valueIndex++) {
+        for (int valueIndex = 0; valueIndex < successors.length; valueIndex++) {
             this.successors[valueIndex] = new VNode(instance, classAttribute, getScoreValue(),
                     numSampledFeatures, height + 1);
         }
 
+        clearCachedScvs();
         if (lazyMode) {
             counts = null;
         }
     }
 
+    /**
+     * @return number of successors of a split on the attribute, see {@link #setLeftValues(boolean[])}
+     */
+    protected int getNumSuccessors(Attribute attribute) {
+        if (attribute.isNumeric() || leftValues != null) {
+            return 2;
+        }
+        return attribute.numValues();
+    }
+
     public int getNumClasses()
     {
         return this.classAttribute.numValues();
@@ -328,12 +570,14 @@ public class VNode implements Serializable
     {
         AttrStat attrStat = counts[attribute.index()];
 
-        return attrStat.getCount(attrValue);
+        return attrStat == null ? 0 : attrStat.getCount(attrValue);
     }
 
     public int getCount(Attribute attribute, double valueIndex, int classIndex)
     {
-        return counts[attribute.index()].getCount(valueIndex, classIndex);
+        AttrStat attrStat = counts[attribute.index()];
+
+        return attrStat == null ? 0 : attrStat.getCount(valueIndex, classIndex);
     }
 
     public int getHeight() {
@@ -365,15 +609,16 @@ public class VNode implements Serializable
             adjustClassCount(instanceClassValue, amount);
         }
 
-        // If in a lazy mode, we do not populate the instance to attribute statistics for non-leaf nodes.
-        if (statMode != CVFDT.StatMode.LAZY || attribute == null) {
+        if (keepsAttrStats(statMode)) {
             if (numSampledFeatures > 0) {
                 for (int i = 0; i < numSampledFeatures; i++) {
+                    if (isAttributeRemoved(sampledFeatures[i])) continue;
                     Attribute attribute = instance.attribute(sampledFeatures[i]);
                     adjustCount(attribute, instance, amount);
                 }
             } else {
                 for (int i = 0; i < instance.numAttributes(); i++) {
+                    if (isAttributeRemoved(i)) continue;
                     Attribute attribute = instance.attribute(i);
                     if (attribute != classAttribute) {
                         adjustCount(attribute, instance, amount);
@@ -421,6 +666,14 @@ public class VNode implements Serializable
         }
     }
 
+    /**
+     * @return whether the attribute statistics of this node are updated in the stat mode
+     */
+    protected boolean keepsAttrStats(CVFDT.StatMode statMode) {
+        // If in a lazy mode, we do not populate the instance to attribute statistics for non-leaf nodes.
+        return (statMode != CVFDT.StatMode.LAZY || attribute == null) && !inactive && counts != null;
+    }
+
     protected void adjustTotalCount(int amount) {
         totalCount += amount;
     }
@@ -437,6 +690,10 @@ public class VNode implements Serializable
     protected void adjustCount(Attribute attribute, Instance instance, int amount) {
         int attributeIndex = attribute.index();
         AttrStat attrStat = counts[attributeIndex];
+        if (attrStat == null) {
+            attrStat = AttrStat.getAttrStat(attribute, classAttribute);
+            counts[attributeIndex] = attrStat;
+        }
         double classValue = instance.value(classAttribute);
         double attrValue = instance.value(attribute);
         attrStat.adjustCount(attrValue, classValue, amount);
@@ -534,6 +791,8 @@ public class VNode implements Serializable
             }
 
             text.append(String.format("%.2f", splitValue));
+        } else if (leftValues != null) {
+            text.append(i == 0 ? "in " : "not in ").append(getLeftValuesText());
         } else {
             text.append("= ").append(attribute.value(i));
         }
@@ -543,6 +802,19 @@ public class VNode implements Serializable
         return text.toString();
     }
 
+    protected String getLeftValuesText() {
+        StringBuilder text = new StringBuilder("{");
+        for (int valueIndex = 0; valueIndex < leftValues.length; valueIndex++) {
+            if (leftValues[valueIndex]) {
+                if (text.length() > 1) {
+                    text.append(", ");
+                }
+                text.append(attribute.value(valueIndex));
+            }
+        }
+        return text.append("}").toString();
+    }
+
     public double getClassSum() {
         return classSum;
     }
@@ -563,6 +835,19 @@ public class VNode implements Serializable
         this.splitValue = splitValue;
     }
 
+    public boolean[] getLeftValues() {
+        return leftValues;
+    }
+
+    /**
+     * Make the next split on a discrete attribute binary: the values set in leftValues go to the first
+     * successor and all others, including values appended later, to the second. Null for one successor per value.
+     * @param leftValues
+     */
+    public void setLeftValues(boolean[] leftValues) {
+        this.leftValues = leftValues;
+    }
+
     public Node getSDT() {
         Node[] successors = null;
         if (this.successors != null) {
@@ -572,8 +857,8 @@ public class VNode implements Serializable
             }
         }
 
-        return new Node(successors, attribute, classAttribute, attributes, splitValue, classValue, totalCount,
-                sampledFeatures, getScoreValue());
+        return new Node(successors, attribute, classAttribute, attributes, splitValue, leftValues, classValue,
+                totalCount, sampledFeatures, getScoreValue());
     }
 
     public AttrStat[] getCounts() {
@@ -43,10 +43,17 @@ public abstract class AbstractProfiler implements Serializable {
         }
 
         public void start() {
+            start(1);
+        }
+
+        /**
+         * Start a measurement which covers numCounts operations, e.g. all rows of a batch.
+         */
+        public void start(long numCounts) {
             assert(!start);
 
             nanoStart = System.nanoTime();
-            count++;
+            count += numCounts;
             start = true;
         }
 
@@ -21,6 +21,7 @@ public class CVFDTProfiler extends VFDTProfiler implements Serializable {
     protected int numALTNodesActivate;
     protected int numALTTotalSplit;
     protected int numALTTieSplit;
+    protected int numFrozenNode;
 
     public CVFDTProfiler(CVFDT cvfdt) {
         super(cvfdt);
@@ -32,6 +33,7 @@ public class CVFDTProfiler extends VFDTProfiler implements Serializable {
         numALTNodesActivate = 0;
         numALTTotalSplit = 0;
         numALTTieSplit = 0;
+        numFrozenNode = 0;
     }
 
     public void addNumALTTotalSplit() {
@@ -42,6 +44,14 @@ public class CVFDTProfiler extends VFDTProfiler implements Serializable {
         numALTTieSplit++;
     }
 
+    public void addFrozenNode() {
+        numFrozenNode++;
+    }
+
+    public int getNumFrozenNode() {
+        return numFrozenNode;
+    }
+
     public int getNumALTTotalSplit() {
         return numALTTotalSplit;
     }
@@ -129,6 +139,7 @@ public class CVFDTProfiler extends VFDTProfiler implements Serializable {
                 .append(", # of nodes is ").append(numALTNodesActivate).append("\n");
         ret.append("# of ALT total split is ").append(numALTTotalSplit).append("\n");
         ret.append("# of ALT tie split is ").append(numALTTieSplit).append("\n");
+        ret.append("# of frozen node is ").append(numFrozenNode).append("\n");
 
         return ret.toString();
     }
@@ -18,6 +18,13 @@ public class SDTProfiler extends AbstractProfiler implements Serializable {
         scoring.start();
     }
 
+    /**
+     * Start scoring numScorings instances at once, so the count still means instances scored.
+     */
+    public void startScorings(int numScorings) {
+        scoring.start(numScorings);
+    }
+
     public void stopScoring() {
         scoring.stop();
     }
@@ -15,6 +15,8 @@ public class VFDTProfiler extends SDTProfiler implements Serializable {
     protected int numTotalSplit;
     protected int numTieSplit;
     protected int numPreprune;
+    protected int numDeactivation;
+    protected int numReactivation;
 
     public VFDTProfiler(VFDT vfdt) {
         this.training = new ProfileMeasurement("training");
@@ -33,6 +35,22 @@ public class VFDTProfiler extends SDTProfiler implements Serializable {
         return numPreprune;
     }
 
+    public void addDeactivation() {
+        numDeactivation++;
+    }
+
+    public int getNumDeactivation() {
+        return numDeactivation;
+    }
+
+    public void addReactivation() {
+        numReactivation++;
+    }
+
+    public int getNumReactivation() {
+        return numReactivation;
+    }
+
     public void addTieSplit() {
         numTieSplit++;
     }
@@ -94,6 +112,8 @@ public class VFDTProfiler extends SDTProfiler implements Serializable {
         ret.append("# of total split is ").append(getNumTotalSplit()).append("\n");
         ret.append("# of tie split is ").append(getNumTieSplit()).append("\n");
         ret.append("# of preprune is ").append(numPreprune).append("\n");
+        ret.append("# of leaf deactivation is ").append(numDeactivation).append("\n");
+        ret.append("# of leaf reactivation is ").append(numReactivation).append("\n");
         return ret.toString();
     }
 
@@ -8,7 +8,7 @@ import java.io.Serializable;
 /**
  * Abstract Attribute Statistics
  */
-public abstract class AttrStat implements Serializable {
+public abstract class AttrStat implements Serializable, Cloneable {
     private Attribute attribute;
 
     public static AttrStat getAttrStat(Attribute attribute, Attribute classAttr) {
@@ -30,4 +30,22 @@ public abstract class AttrStat implements Serializable {
     public abstract void adjustCount(double attrValue, double classValue, int amount);
     public abstract int getCount(double attrValue, double classValue);
     public abstract int getCount(double attrValue);
+
+    /**
+     * @return a deep copy of the statistics
+     */
+    public abstract AttrStat copy();
+
+    /**
+     * @return estimated bytes of the statistics
+     */
+    public abstract long getMemorySize();
+
+    protected AttrStat shallowCopy() {
+        try {
+            return (AttrStat) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
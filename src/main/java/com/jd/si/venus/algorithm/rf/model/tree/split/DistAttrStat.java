@@ -4,42 +4,261 @@ package com.jd.si.venus.algorithm.rf.model.tree.split;
 import com.jd.si.venus.algorithm.rf.model.core.Attribute;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Discrete Attribute Statistics
+ *
+ * For the i-th attribute value, counts[i] is its number of instances. For a discrete class,
+ * classCounts[i * numClasses + classIndex] is its number of instances of the class.
+ * For a numeric class, sums[i] and squaredSums[i] are the sum and squared sum of its class values.
+ *
+ * An attribute with many values starts sparse: the rows are kept only for the values seen, in the
+ * order they are seen, with entryValues[row] the value of a row. Once more than SPARSE_MAX_ENTRIES
+ * values are seen, the rows are spread to one per value. The arrays are read row by row, see
+ * {@link #getNumRows()} and {@link #getRowValue(int)}, so reading them keeps a sparse stat sparse.
  */
 public class DistAttrStat extends AttrStat implements Serializable {
-    private ClassStat[] counts;
+    protected static final int SPARSE_MIN_VALUES = 16;
+    protected static final int SPARSE_MAX_ENTRIES = 8;
+
+    private Attribute classAttr;
+    private int numValues;
+    private int numClasses;
+    private int[] counts;
+    private int[] classCounts;
+    private double[] sums;
+    private double[] squaredSums;
+
+    // value of each row while sparse, null once dense
+    private int[] entryValues;
+    private int numEntries;
 
     public DistAttrStat(Attribute attribute, Attribute classAttr) {
         super(attribute);
-        counts = new ClassStat[attribute.numValues()];
-        for (int i = 0; i < counts.length; i++) {
-            counts[i] = ClassStat.getClassStat(classAttr);
+        this.classAttr = classAttr;
+        this.numValues = attribute.numValues();
+        this.numClasses = classAttr.isNumeric() ? 0 : classAttr.numValues();
+
+        if (numValues > SPARSE_MIN_VALUES) {
+            this.entryValues = new int[2];
+            this.numEntries = 0;
+            allocate(2);
+        } else {
+            allocate(numValues);
+        }
+    }
+
+    private void allocate(int numRows) {
+        this.counts = new int[numRows];
+        if (classAttr.isNumeric()) {
+            this.sums = new double[numRows];
+            this.squaredSums = new double[numRows];
+        } else {
+            this.classCounts = new int[numRows * numClasses];
         }
     }
 
     @Override
     public void adjustCount(double attrValueIndex, double classValue, int amount) {
-        counts[(int) attrValueIndex].adjustCount(classValue, amount);
+        int valueIndex = (int) attrValueIndex;
+        int row = entryValues != null ? getSparseRow(valueIndex, true) : valueIndex;
+        if (row < 0) {
+            densify();
+            row = valueIndex;
+        }
+        if (entryValues == null && row >= numValues) {
+            grow(getAttribute().numValues());
+        }
+
+        counts[row] += amount;
+        if (classCounts != null) {
+            classCounts[row * numClasses + (int) classValue] += amount;
+        } else {
+            sums[row] += classValue * amount;
+            squaredSums[row] += classValue * classValue * amount;
+        }
     }
 
     @Override
     public int getCount(double attrValueIndex, double classValue) {
-        return counts[(int) attrValueIndex].getCount(classValue);
+        if (classCounts == null) {
+            throw new RuntimeException("It is not supported to get count for a numeric class (Regression Tree)");
+        }
+        int row = getRow((int) attrValueIndex);
+        return row < 0 ? 0 : classCounts[row * numClasses + (int) classValue];
     }
 
     @Override
     public int getCount(double attrValueIndex) {
-        return counts[(int) attrValueIndex].getCount();
+        int row = getRow((int) attrValueIndex);
+        return row < 0 ? 0 : counts[row];
+    }
+
+    /**
+     * @return row of the value in the arrays, -1 if it has no row
+     */
+    public int getRow(int valueIndex) {
+        if (entryValues != null) {
+            return getSparseRow(valueIndex, false);
+        }
+        return valueIndex < numValues ? valueIndex : -1;
     }
 
-    public ClassStat[] getCounts() {
+    /**
+     * @param valueIndex
+     * @param create whether to add a row for a value not seen yet
+     * @return row of the value, -1 if it has no row or there is no room for a new one
+     */
+    private int getSparseRow(int valueIndex, boolean create) {
+        for (int row = 0; row < numEntries; row++) {
+            if (entryValues[row] == valueIndex) {
+                return row;
+            }
+        }
+        if (!create || numEntries == SPARSE_MAX_ENTRIES) {
+            return -1;
+        }
+
+        if (numEntries == entryValues.length) {
+            int capacity = Math.min(SPARSE_MAX_ENTRIES, numEntries * 2);
+            entryValues = Arrays.copyOf(entryValues, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            if (classCounts != null) {
+                classCounts = Arrays.copyOf(classCounts, capacity * numClasses);
+            } else {
+                sums = Arrays.copyOf(sums, capacity);
+                squaredSums = Arrays.copyOf(squaredSums, capacity);
+            }
+        }
+        entryValues[numEntries] = valueIndex;
+        return numEntries++;
+    }
+
+    /**
+     * Spread the sparse rows to one row per value.
+     */
+    protected void densify() {
+        if (entryValues == null) {
+            return;
+        }
+
+        int[] sparseCounts = counts;
+        int[] sparseClassCounts = classCounts;
+        double[] sparseSums = sums;
+        double[] sparseSquaredSums = squaredSums;
+
+        numValues = Math.max(numValues, getAttribute().numValues());
+        allocate(numValues);
+        for (int row = 0; row < numEntries; row++) {
+            int valueIndex = entryValues[row];
+            counts[valueIndex] = sparseCounts[row];
+            if (classCounts != null) {
+                System.arraycopy(sparseClassCounts, row * numClasses, classCounts, valueIndex * numClasses, numClasses);
+            } else {
+                sums[valueIndex] = sparseSums[row];
+                squaredSums[valueIndex] = sparseSquaredSums[row];
+            }
+        }
+
+        entryValues = null;
+        numEntries = 0;
+    }
+
+    @Override
+    public DistAttrStat copy() {
+        DistAttrStat copy = (DistAttrStat) shallowCopy();
+        copy.counts = counts.clone();
+        if (classCounts != null) {
+            copy.classCounts = classCounts.clone();
+        } else {
+            copy.sums = sums.clone();
+            copy.squaredSums = squaredSums.clone();
+        }
+        if (entryValues != null) {
+            copy.entryValues = entryValues.clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public long getMemorySize() {
+        long size = 48 + 16 + 4L * counts.length;
+        if (classCounts != null) {
+            size += 16 + 4L * classCounts.length;
+        } else {
+            size += 32 + 16L * sums.length;
+        }
+        if (entryValues != null) {
+            size += 16 + 4L * entryValues.length;
+        }
+        return size;
+    }
+
+    /**
+     * Add statistics for values appended to a growable attribute.
+     * @param numValues
+     */
+    protected void grow(int numValues) {
+        counts = Arrays.copyOf(counts, numValues);
+        if (classCounts != null) {
+            classCounts = Arrays.copyOf(classCounts, numValues * numClasses);
+        } else {
+            sums = Arrays.copyOf(sums, numValues);
+            squaredSums = Arrays.copyOf(squaredSums, numValues);
+        }
+        this.numValues = numValues;
+    }
+
+    /**
+     * @return number of attribute values the statistics cover, may be less than the attribute's after growth
+     */
+    public int getNumValues() {
+        if (entryValues != null) {
+            return Math.max(numValues, getAttribute().numValues());
+        }
+        return numValues;
+    }
+
+    /**
+     * @return number of rows of the arrays
+     */
+    public int getNumRows() {
+        return entryValues != null ? numEntries : numValues;
+    }
+
+    /**
+     * @param row
+     * @return attribute value index of the row
+     */
+    public int getRowValue(int row) {
+        return entryValues != null ? entryValues[row] : row;
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return instance counts by row, see {@link #getRowValue(int)}
+     */
+    public int[] getCounts() {
         return counts;
     }
-    
-    public void setCounts(int index, ClassStat classStat) {
-    	counts[index] = classStat;
+
+    /**
+     * @return class counts by row, classCounts[row * numClasses + classIndex]
+     */
+    public int[] getClassCounts() {
+        return classCounts;
+    }
+
+    public double[] getSums() {
+        return sums;
     }
-    
+
+    public double[] getSquaredSums() {
+        return squaredSums;
+    }
+
 }
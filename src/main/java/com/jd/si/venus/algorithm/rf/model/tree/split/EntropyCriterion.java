@@ -0,0 +1,26 @@
+package com.jd.si.venus.algorithm.rf.model.tree.split;
+
+
+import com.jd.si.venus.algorithm.rf.model.util.Utils;
+
+/**
+ * Entropy, -sum(p log p) = (n log n - sum(c log c)) / n with c log c written for c * log2(c).
+ */
+public class EntropyCriterion extends SplitCriterion {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public double term(int count) {
+        return Utils.nLog2n(count);
+    }
+
+    @Override
+    public double weightedImpurity(double terms, int totalCount) {
+        return Utils.nLog2n(totalCount) - terms;
+    }
+
+    @Override
+    public double getRange(int numClasses) {
+        return Utils.log2(numClasses);
+    }
+}
@@ -0,0 +1,99 @@
+package com.jd.si.venus.algorithm.rf.model.tree.split;
+
+
+import java.io.Serializable;
+
+/**
+ * Weighted entropy of a binary split, updated while instances are moved from the
+ * greater partition to the less-or-equal partition.
+ *
+ * With c log c written for c * log2(c), the entropy of a partition with class counts c_i
+ * and total n is (n log n - sum(c_i log c_i)) / n, so keeping the sums of c_i log c_i
+ * lets a move update only the classes it changes. Another {@link SplitCriterion} is
+ * swept the same way with its own terms.
+ */
+public class EntropySweep implements Serializable {
+    private SplitCriterion criterion;
+    private int numClasses;
+    private int[] leCounts;
+    private int[] gtCounts;
+    private int leTotal;
+    private int gtTotal;
+    private int totalCount;
+    private double leTerms;
+    private double gtTerms;
+
+    public EntropySweep(int numClasses) {
+        this(numClasses, new EntropyCriterion());
+    }
+
+    public EntropySweep(int numClasses, SplitCriterion criterion) {
+        this.criterion = criterion;
+        this.numClasses = numClasses;
+        this.leCounts = new int[numClasses];
+        this.gtCounts = new int[numClasses];
+    }
+
+    /**
+     * Start with all instances in the greater partition.
+     * @param classCounts class counts of all instances
+     * @param totalCount
+     */
+    public void reset(int[] classCounts, int totalCount) {
+        if (classCounts.length > numClasses) {
+            numClasses = classCounts.length;
+            leCounts = new int[numClasses];
+            gtCounts = new int[numClasses];
+        }
+
+        this.totalCount = totalCount;
+        leTotal = 0;
+        gtTotal = totalCount;
+        leTerms = 0d;
+        gtTerms = 0d;
+        for (int i = 0; i < numClasses; i++) {
+            leCounts[i] = 0;
+            gtCounts[i] = i < classCounts.length ? classCounts[i] : 0;
+            gtTerms += criterion.term(gtCounts[i]);
+        }
+    }
+
+    /**
+     * Move instances to the less-or-equal partition.
+     * @param classCounts
+     * @param offset index of the class counts to move
+     * @param count total of the class counts to move
+     */
+    public void move(int[] classCounts, int offset, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        for (int i = 0; i < numClasses; i++) {
+            int amount = classCounts[offset + i];
+            if (amount != 0) {
+                leTerms += criterion.term(leCounts[i] + amount) - criterion.term(leCounts[i]);
+                gtTerms += criterion.term(gtCounts[i] - amount) - criterion.term(gtCounts[i]);
+                leCounts[i] += amount;
+                gtCounts[i] -= amount;
+            }
+        }
+        leTotal += count;
+        gtTotal -= count;
+    }
+
+    /**
+     * @return entropy, or the impurity of the criterion, of the partitions weighted by their share of instances
+     */
+    public double getEntropy() {
+        return (criterion.weightedImpurity(leTerms, leTotal) + criterion.weightedImpurity(gtTerms, gtTotal)) / totalCount;
+    }
+
+    public int getLeTotal() {
+        return leTotal;
+    }
+
+    public int getGtTotal() {
+        return gtTotal;
+    }
+}
@@ -0,0 +1,24 @@
+package com.jd.si.venus.algorithm.rf.model.tree.split;
+
+
+/**
+ * Gini impurity, 1 - sum(p^2) = (n - sum(c^2) / n) / n. Unlike entropy, it needs no logarithm.
+ */
+public class GiniCriterion extends SplitCriterion {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public double term(int count) {
+        return (double) count * count;
+    }
+
+    @Override
+    public double weightedImpurity(double terms, int totalCount) {
+        return totalCount > 0 ? totalCount - terms / totalCount : 0d;
+    }
+
+    @Override
+    public double getRange(int numClasses) {
+        return 1d;
+    }
+}
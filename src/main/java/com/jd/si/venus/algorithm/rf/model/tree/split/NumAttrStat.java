@@ -2,27 +2,39 @@ package com.jd.si.venus.algorithm.rf.model.tree.split;
 
 
 import com.jd.si.venus.algorithm.rf.model.core.Attribute;
+import com.jd.si.venus.algorithm.rf.model.util.Utils;
 
 import java.io.Serializable;
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * Numeric Attribute Statistics
  */
 public class NumAttrStat extends AttrStat implements Serializable {
-    protected int histogramSize = 10;
-
     protected Attribute classAttr;
-    //protected TreeMap<Double, ClassStat> counts;
-    //protected Histogram histogram;
 
     protected NumAttrData data;
 
     public NumAttrStat(Attribute attribute, Attribute classAttr) {
         super(attribute);
-        this.data = new Raw();
-        //this.data = new Histogram(10);
         this.classAttr = classAttr;
+
+        switch (attribute.getNumSummary()) {
+            case EQUAL_WIDTH:
+                this.data = new EqualWidthBins(attribute.getNumBins());
+                break;
+            case GAUSSIAN:
+                this.data = new Gaussian(attribute.getNumBins());
+                break;
+            case HISTOGRAM:
+                this.data = new Histogram(attribute.getNumBins());
+                break;
+            case QUANTILE:
+                this.data = new QuantileSketch(attribute.getNumBins());
+                break;
+            default:
+                this.data = new Raw();
+        }
     }
 
     @Override
@@ -32,85 +44,497 @@ public class NumAttrStat extends AttrStat implements Serializable {
 
     @Override
     public int getCount(double attrValue, double classValue) {
-        //ClassStat classStat = counts.get(attrValue);
-        ClassStat classStat = data.getData().get(attrValue);
+        data.prepare();
+        int idx = data.indexOf(attrValue);
 
-        if (classStat == null) {
+        if (idx < 0) {
             return 0;
         } else {
-            return classStat.getCount(classValue);
+            return data.classCounts[idx * data.numClasses + (int) classValue];
         }
     }
 
     @Override
     public int getCount(double attrValue) {
-        //ClassStat classStat = counts.get(attrValue);
-        ClassStat classStat = data.getData().get(attrValue);
+        data.prepare();
+        int idx = data.indexOf(attrValue);
 
-        if (classStat == null) {
+        if (idx < 0) {
             return 0;
         } else {
-            return classStat.getCount();
+            return data.counts[idx];
+        }
+    }
+
+    /**
+     * Add the statistics of another attribute statistics, both summarized by {@link QuantileSketch}.
+     * @param other
+     */
+    public void merge(NumAttrStat other) {
+        if (!(data instanceof QuantileSketch) || !(other.data instanceof QuantileSketch)) {
+            throw new RuntimeException("It is not supported to merge numeric statistics other than quantile sketches.");
         }
+        ((QuantileSketch) data).merge((QuantileSketch) other.data);
     }
 
-    public TreeMap<Double, ClassStat> getCounts() {
-        return data.getData();
-        //return histogram.pointsMap;
+    @Override
+    public NumAttrStat copy() {
+        NumAttrStat copy = (NumAttrStat) shallowCopy();
+        copy.data = data.copy();
+        return copy;
     }
 
-    public abstract class NumAttrData implements Serializable {
+    @Override
+    public long getMemorySize() {
+        return 32 + data.getMemorySize();
+    }
+
+    /**
+     * @return statistics sorted by attribute value, for sweeping split candidates
+     */
+    public NumAttrData getData() {
+        data.prepare();
+        return data;
+    }
+
+    /**
+     * Statistics of a numeric attribute, kept in parallel arrays sorted by attribute value.
+     *
+     * For the i-th value, counts[i] is its number of instances. For a discrete class,
+     * classCounts[i * numClasses + classIndex] is its number of instances of the class.
+     * For a numeric class, sums[i] and squaredSums[i] are the sum and squared sum of its class values.
+     */
+    public abstract class NumAttrData implements Serializable, Cloneable {
+        protected int numClasses;
+        protected int size;
+        protected double[] values;
+        protected int[] counts;
+        protected int[] classCounts;
+        protected double[] sums;
+        protected double[] squaredSums;
+
+        public NumAttrData(int capacity) {
+            numClasses = classAttr.isNumeric() ? 0 : classAttr.numValues();
+            size = 0;
+            values = new double[capacity];
+            counts = new int[capacity];
+            if (classAttr.isNumeric()) {
+                sums = new double[capacity];
+                squaredSums = new double[capacity];
+            } else {
+                classCounts = new int[capacity * numClasses];
+            }
+        }
+
         public abstract void update(double attrValue, double classValue, int amount);
-        public abstract TreeMap<Double, ClassStat> getData();
+
+        /**
+         * @return a deep copy of the statistics
+         */
+        public NumAttrData copy() {
+            NumAttrData copy;
+            try {
+                copy = (NumAttrData) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+
+            copy.values = values.clone();
+            copy.counts = counts.clone();
+            if (classCounts != null) {
+                copy.classCounts = classCounts.clone();
+            } else {
+                copy.sums = sums.clone();
+                copy.squaredSums = squaredSums.clone();
+            }
+            return copy;
+        }
+
+        /**
+         * @return estimated bytes of the arrays
+         */
+        public long getMemorySize() {
+            long size = 48 + 16 + 8L * values.length + 16 + 4L * counts.length;
+            if (classCounts != null) {
+                size += 16 + 4L * classCounts.length;
+            } else {
+                size += 32 + 16L * sums.length;
+            }
+            return size;
+        }
+
+        /**
+         * Bring the arrays up to date before they are read.
+         */
+        public void prepare() {
+        }
+
+        /**
+         * @return the split value which puts the entries [0, idx] to the left
+         */
+        public double getSplitValue(int idx) {
+            return values[idx];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getNumClasses() {
+            return numClasses;
+        }
+
+        public double[] getValues() {
+            return values;
+        }
+
+        public int[] getCounts() {
+            return counts;
+        }
+
+        public int[] getClassCounts() {
+            return classCounts;
+        }
+
+        public double[] getSums() {
+            return sums;
+        }
+
+        public double[] getSquaredSums() {
+            return squaredSums;
+        }
+
+        /**
+         * @return index of the value, or (-(insertion point) - 1) if absent
+         */
+        public int indexOf(double attrValue) {
+            return Arrays.binarySearch(values, 0, size, attrValue);
+        }
+
+        /**
+         * Keep one entry per distinct attribute value.
+         */
+        protected void updateExact(double attrValue, double classValue, int amount) {
+            int idx = indexOf(attrValue);
+            if (idx < 0) {
+                idx = -idx - 1;
+                insert(idx, attrValue);
+            }
+            add(idx, classValue, amount);
+
+            if (amount < 0 && counts[idx] == 0) {
+                remove(idx);
+            }
+        }
+
+        /**
+         * Add the instance to the statistics at the index.
+         */
+        protected void add(int idx, double classValue, int amount) {
+            counts[idx] += amount;
+            if (classCounts != null) {
+                classCounts[idx * numClasses + (int) classValue] += amount;
+            } else {
+                sums[idx] += classValue * amount;
+                squaredSums[idx] += classValue * classValue * amount;
+            }
+        }
+
+        /**
+         * Insert an empty entry for the value at the index, shifting the greater values.
+         */
+        protected void insert(int idx, double attrValue) {
+            if (size == values.length) {
+                int capacity = Math.max(4, size * 2);
+                values = Arrays.copyOf(values, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                if (classCounts != null) {
+                    classCounts = Arrays.copyOf(classCounts, capacity * numClasses);
+                } else {
+                    sums = Arrays.copyOf(sums, capacity);
+                    squaredSums = Arrays.copyOf(squaredSums, capacity);
+                }
+            }
+
+            int numMoved = size - idx;
+            System.arraycopy(values, idx, values, idx + 1, numMoved);
+            System.arraycopy(counts, idx, counts, idx + 1, numMoved);
+            values[idx] = attrValue;
+            counts[idx] = 0;
+            if (classCounts != null) {
+                System.arraycopy(classCounts, idx * numClasses, classCounts, (idx + 1) * numClasses,
+                        numMoved * numClasses);
+                Arrays.fill(classCounts, idx * numClasses, (idx + 1) * numClasses, 0);
+            } else {
+                System.arraycopy(sums, idx, sums, idx + 1, numMoved);
+                System.arraycopy(squaredSums, idx, squaredSums, idx + 1, numMoved);
+                sums[idx] = 0d;
+                squaredSums[idx] = 0d;
+            }
+            size++;
+        }
+
+        /**
+         * Remove the entry at the index, shifting the greater values.
+         */
+        protected void remove(int idx) {
+            int numMoved = size - idx - 1;
+            System.arraycopy(values, idx + 1, values, idx, numMoved);
+            System.arraycopy(counts, idx + 1, counts, idx, numMoved);
+            if (classCounts != null) {
+                System.arraycopy(classCounts, (idx + 1) * numClasses, classCounts, idx * numClasses,
+                        numMoved * numClasses);
+            } else {
+                System.arraycopy(sums, idx + 1, sums, idx, numMoved);
+                System.arraycopy(squaredSums, idx + 1, squaredSums, idx, numMoved);
+            }
+            size--;
+        }
     }
 
+    /**
+     * Exact statistics with one entry per distinct attribute value.
+     */
     public class Raw extends NumAttrData implements Serializable {
-        protected TreeMap<Double, ClassStat> data;
-
         public Raw() {
-            data = new TreeMap<Double, ClassStat>();
+            super(4);
+        }
+
+        @Override
+        public void update(double attrValue, double classValue, int amount) {
+            updateExact(attrValue, classValue, amount);
+        }
+    }
+
+    /**
+     * Equal width bins. Values are kept exactly until numBins distinct values are seen,
+     * then the range of those values is cut into numBins bins. Values out of the range
+     * fall into the first or the last bin. Every bin is keyed by its upper bound.
+     */
+    public class EqualWidthBins extends NumAttrData implements Serializable {
+        protected int numBins;
+        protected boolean binned;
+        protected double min;
+        protected double width;
+
+        public EqualWidthBins(int numBins) {
+            super(4);
+            this.numBins = numBins;
+            this.binned = false;
         }
 
         @Override
         public void update(double attrValue, double classValue, int amount) {
-            ClassStat classStat = data.get(attrValue);
-            if (classStat == null) {
-                classStat = ClassStat.getClassStat(classAttr);
-                data.put(attrValue, classStat);
+            if (binned) {
+                add(getBin(attrValue), classValue, amount);
+            } else {
+                updateExact(attrValue, classValue, amount);
+                if (size >= numBins) {
+                    toBins();
+                }
+            }
+        }
+
+        protected int getBin(double attrValue) {
+            int bin = (int) Math.ceil((attrValue - min) / width) - 1;
+            return Math.max(0, Math.min(numBins - 1, bin));
+        }
+
+        protected void toBins() {
+            double[] exactValues = values;
+            int[] exactCounts = counts;
+            int[] exactClassCounts = classCounts;
+            double[] exactSums = sums;
+            double[] exactSquaredSums = squaredSums;
+            int numExact = size;
+
+            min = exactValues[0];
+            width = (exactValues[numExact - 1] - min) / numBins;
+
+            values = new double[numBins];
+            counts = new int[numBins];
+            if (exactClassCounts != null) {
+                classCounts = new int[numBins * numClasses];
+            } else {
+                sums = new double[numBins];
+                squaredSums = new double[numBins];
+            }
+            for (int bin = 0; bin < numBins - 1; bin++) {
+                values[bin] = min + (bin + 1) * width;
+            }
+            values[numBins - 1] = Double.POSITIVE_INFINITY;
+            size = numBins;
+
+            for (int i = 0; i < numExact; i++) {
+                int bin = getBin(exactValues[i]);
+                counts[bin] += exactCounts[i];
+                if (exactClassCounts != null) {
+                    for (int c = 0; c < numClasses; c++) {
+                        classCounts[bin * numClasses + c] += exactClassCounts[i * numClasses + c];
+                    }
+                } else {
+                    sums[bin] += exactSums[i];
+                    squaredSums[bin] += exactSquaredSums[i];
+                }
             }
-            classStat.adjustCount(classValue, amount);
 
-            if (amount < 0 && classStat.getCount() == 0) {
-                data.remove(attrValue);
+            binned = true;
+        }
+    }
+
+    /**
+     * One normal distribution per class, kept as count, sum and squared sum of the attribute
+     * values. The entries are numBins candidate split values evenly spaced in the observed range,
+     * with class counts estimated from the normal distributions. Only for a discrete class.
+     */
+    public class Gaussian extends NumAttrData implements Serializable {
+        protected int numCandidates;
+        protected int[] classTotals;
+        protected double[] classSums;
+        protected double[] classSquaredSums;
+        protected int[] cumulative;
+        protected double minValue = Double.POSITIVE_INFINITY;
+        protected double maxValue = Double.NEGATIVE_INFINITY;
+        protected boolean dirty = false;
+
+        public Gaussian(int numCandidates) {
+            super(numCandidates + 1);
+            if (classAttr.isNumeric()) {
+                throw new RuntimeException("Gaussian summary is not supported for a numeric class (Regression Tree)");
+            }
+
+            this.numCandidates = numCandidates;
+            this.classTotals = new int[numClasses];
+            this.classSums = new double[numClasses];
+            this.classSquaredSums = new double[numClasses];
+            this.cumulative = new int[numClasses];
+        }
+
+        @Override
+        public Gaussian copy() {
+            Gaussian copy = (Gaussian) super.copy();
+            copy.classTotals = classTotals.clone();
+            copy.classSums = classSums.clone();
+            copy.classSquaredSums = classSquaredSums.clone();
+            copy.cumulative = cumulative.clone();
+            return copy;
+        }
+
+        @Override
+        public void update(double attrValue, double classValue, int amount) {
+            int classIndex = (int) classValue;
+            classTotals[classIndex] += amount;
+            classSums[classIndex] += attrValue * amount;
+            classSquaredSums[classIndex] += attrValue * attrValue * amount;
+
+            // the range is not shrunk on decrement
+            if (amount > 0) {
+                minValue = Math.min(minValue, attrValue);
+                maxValue = Math.max(maxValue, attrValue);
             }
+            dirty = true;
         }
 
         @Override
-        public TreeMap<Double, ClassStat> getData() {
-            return data;
+        public void prepare() {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            size = 0;
+
+            int numEntries = minValue < maxValue ? numCandidates + 1 : 1;
+            for (int c = 0; c < numClasses; c++) {
+                cumulative[c] = 0;
+            }
+
+            for (int idx = 0; idx < numEntries; idx++) {
+                boolean last = idx == numEntries - 1;
+                double splitValue = last ? maxValue : minValue + (maxValue - minValue) * (idx + 1) / (numCandidates + 1);
+                values[idx] = splitValue;
+                counts[idx] = 0;
+
+                for (int c = 0; c < numClasses; c++) {
+                    int leCount = last ? classTotals[c] : estimateLeCount(c, splitValue);
+                    // keep the cumulative counts monotone
+                    leCount = Math.max(cumulative[c], Math.min(classTotals[c], leCount));
+
+                    classCounts[idx * numClasses + c] = leCount - cumulative[c];
+                    counts[idx] += leCount - cumulative[c];
+                    cumulative[c] = leCount;
+                }
+            }
+            size = numEntries;
+        }
+
+        /**
+         * @return estimated number of instances of the class with value not greater than the split value
+         */
+        protected int estimateLeCount(int classIndex, double splitValue) {
+            int n = classTotals[classIndex];
+            if (n <= 0) {
+                return 0;
+            }
+
+            double mean = classSums[classIndex] / n;
+            double variance = classSquaredSums[classIndex] / n - mean * mean;
+            if (variance <= 0d) {
+                return splitValue >= mean ? n : 0;
+            }
+
+            return (int) Math.round(n * Utils.normalCdf((splitValue - mean) / Math.sqrt(variance)));
         }
     }
 
+    /**
+     * A streaming histogram with at most maxBins bins, each keyed by the centroid of its values.
+     * A new value gets its own bin, and the two closest bins are merged when there are too many.
+     * A removed instance is taken from the nearest bin which still has instances of its class.
+     */
     public class Histogram extends NumAttrData implements Serializable {
-        protected TreeMap<Double, ClassStat> pointsMap;
-        protected ClassStat[] pointsArr;
-        protected HashMap<ClassStat, Short> points2Idx;
-        protected short pointsIdx;
-        protected int size;
-        //protected int windowIdx = 0;
-        //protected List<Short> pointsList;
-        //protected short[] inst2hist;
-        protected List<Short> inst2hist;
+        protected int maxBins;
 
-        public Histogram(int size) {
-            this.pointsMap = new TreeMap<Double, ClassStat>();
-            this.size = size;
-            this.pointsArr = new ClassStat[size];
-            this.points2Idx = new HashMap<ClassStat, Short>();
-            this.pointsIdx = 0;
-            //pointsList = new ArrayList<Short>();
-            //this.inst2hist = new short[WINDOW_SIZE];
-            this.inst2hist = new LinkedList<Short>();//new ArrayList<Short>();
+        public Histogram(int maxBins) {
+            super(maxBins + 1);
+            this.maxBins = maxBins;
+        }
+
+        @Override
+        public void update(double attrValue, double classValue, int amount) {
+            int idx;
+            if (amount > 0) {
+                idx = indexOf(attrValue);
+                if (idx < 0) {
+                    idx = -idx - 1;
+                    insert(idx, attrValue);
+                }
+                add(idx, classValue, amount);
+
+                if (size > maxBins) {
+                    mergeClosest();
+                }
+            } else {
+                idx = getNearest(attrValue, (int) classValue);
+                if (idx < 0) {
+                    return;
+                }
+                add(idx, classValue, amount);
+
+                if (counts[idx] <= 0) {
+                    remove(idx);
+                }
+            }
+        }
+
+        /**
+         * Split between two bins in the middle of their centroids.
+         */
+        @Override
+        public double getSplitValue(int idx) {
+            if (idx < size - 1) {
+                return (values[idx] + values[idx + 1]) / 2d;
+            }
+            return values[idx];
         }
 
         /**
@@ -118,82 +542,212 @@ public class NumAttrStat extends AttrStat implements Serializable {
          *   qi * ki + qi+1ki+1
          * ( ------------------, ki + ki+1)
          *      ki + ki+1
-         * @param attrValue
-         * @param classValue
-         * @param amount
          */
-        @Override
-        public void update(double attrValue, double classValue, int amount) {
-            ClassStat stat = null;
-
-            if (amount > 0) {
-                if (pointsMap.size() < size) {
-                    if (!pointsMap.containsKey(attrValue)) {
-                        assert (amount > 0);
-                        stat = ClassStat.getClassStat(classAttr);
-                        pointsMap.put(attrValue, stat);
-                        points2Idx.put(stat, pointsIdx);
-                        pointsArr[pointsIdx++] = stat;
-                    } else {
-                        stat = pointsMap.get(attrValue);
-                    }
-                } else {
-                    if (pointsMap.containsKey(attrValue)) {
-                        stat = pointsMap.get(attrValue);
-                    } else {
-                        assert (amount > 0);
-                        Map.Entry<Double, ClassStat> nearestPoint = getNearestPoint(attrValue);
-                        stat = nearestPoint.getValue();
-                        double newAttrValue = (nearestPoint.getKey() * stat.getCount() + attrValue * amount) /
-                                (double) (stat.getCount() + amount);
-                        pointsMap.remove(nearestPoint.getKey());
-                        pointsMap.put(newAttrValue, stat);
-                    }
+        protected void mergeClosest() {
+            int idx = 0;
+            double minDiff = Double.MAX_VALUE;
+            for (int i = 0; i < size - 1; i++) {
+                double diff = values[i + 1] - values[i];
+                if (diff < minDiff) {
+                    minDiff = diff;
+                    idx = i;
                 }
+            }
 
-                //windowIdx++;
-                inst2hist.add(points2Idx.get(stat));
+            int next = idx + 1;
+            int count = counts[idx] + counts[next];
+            values[idx] = (values[idx] * counts[idx] + values[next] * counts[next]) / count;
+            counts[idx] = count;
+            if (classCounts != null) {
+                for (int c = 0; c < numClasses; c++) {
+                    classCounts[idx * numClasses + c] += classCounts[next * numClasses + c];
+                }
             } else {
-                assert(inst2hist.size() > 0);
-                short pointIdx = inst2hist.remove(0);
-                stat = pointsArr[pointIdx];
+                sums[idx] += sums[next];
+                squaredSums[idx] += squaredSums[next];
             }
+            remove(next);
+        }
 
-            stat.adjustCount(classValue, amount);
-            // TODO
-            /*
-            if (stat.getCount() == 0) {
+        /**
+         * @return the nearest bin holding an instance of the class, -1 if none
+         */
+        protected int getNearest(double attrValue, int classIndex) {
+            int right = indexOf(attrValue);
+            if (right >= 0 && hasInstance(right, classIndex)) {
+                return right;
+            }
+            if (right < 0) {
+                right = -right - 1;
+            }
+            int left = right - 1;
+
+            while (left >= 0 || right < size) {
+                while (left >= 0 && !hasInstance(left, classIndex)) {
+                    left--;
+                }
+                while (right < size && !hasInstance(right, classIndex)) {
+                    right++;
+                }
+
+                if (left < 0 && right >= size) {
+                    break;
+                } else if (left < 0) {
+                    return right;
+                } else if (right >= size) {
+                    return left;
+                } else {
+                    return attrValue - values[left] <= values[right] - attrValue ? left : right;
+                }
+            }
+
+            return -1;
+        }
 
+        protected boolean hasInstance(int idx, int classIndex) {
+            if (classCounts != null) {
+                return classCounts[idx * numClasses + classIndex] > 0;
             }
-            */
+            return counts[idx] > 0;
+        }
+    }
+
+    /**
+     * A quantile sketch of at most maxBuckets buckets. Every bucket covers a closed range [lowers[i], values[i]]
+     * of the values, the ranges are disjoint, and every bucket keeps exact statistics of the instances in its range.
+     *
+     * A value out of all ranges gets a new bucket, and when there are too many, the two adjacent buckets with
+     * the fewest instances together are merged into one covering both ranges and the gap between them. So the
+     * buckets tend to hold equal shares of the instances, and the upper bounds of the buckets are the split
+     * candidates. A range only grows, so a removed instance is always taken from the bucket it was added to.
+     */
+    public class QuantileSketch extends NumAttrData implements Serializable {
+        protected int maxBuckets;
+        protected double[] lowers;
+
+        public QuantileSketch(int maxBuckets) {
+            super(maxBuckets + 1);
+            this.maxBuckets = maxBuckets;
+            this.lowers = new double[maxBuckets + 1];
+        }
+
+        @Override
+        public QuantileSketch copy() {
+            QuantileSketch copy = (QuantileSketch) super.copy();
+            copy.lowers = lowers.clone();
+            return copy;
         }
 
         @Override
-        public TreeMap<Double, ClassStat> getData() {
-            return pointsMap;
+        public long getMemorySize() {
+            return super.getMemorySize() + 16 + 8L * lowers.length;
+        }
+
+        @Override
+        public void update(double attrValue, double classValue, int amount) {
+            // the first bucket with upper bound not less than the value
+            int idx = indexOf(attrValue);
+            if (idx < 0) {
+                idx = -idx - 1;
+            }
+
+            if (idx >= size || lowers[idx] > attrValue) {
+                if (amount < 0) {
+                    return;
+                }
+                insert(idx, attrValue);
+            }
+            add(idx, classValue, amount);
+
+            if (counts[idx] <= 0) {
+                remove(idx);
+            } else if (size > maxBuckets) {
+                mergeSmallest();
+            }
+        }
+
+        /**
+         * Add the buckets of another sketch. A bucket overlapping some buckets of this sketch is merged with them.
+         * @param other
+         */
+        public void merge(QuantileSketch other) {
+            for (int j = 0; j < other.size; j++) {
+                double lower = other.lowers[j];
+                double upper = other.values[j];
+
+                int idx = indexOf(lower);
+                if (idx < 0) {
+                    idx = -idx - 1;
+                }
+                if (idx >= size || lowers[idx] > upper) {
+                    insert(idx, upper);
+                    lowers[idx] = lower;
+                } else {
+                    while (idx + 1 < size && lowers[idx + 1] <= upper) {
+                        fold(idx);
+                    }
+                    lowers[idx] = Math.min(lowers[idx], lower);
+                    values[idx] = Math.max(values[idx], upper);
+                }
+                addEntry(idx, other, j);
+            }
+
+            while (size > maxBuckets) {
+                mergeSmallest();
+            }
         }
 
-        public Map.Entry<Double, ClassStat> getNearestPoint(double attrValue) {
-            Map.Entry<Double, ClassStat> higher = pointsMap.higherEntry(attrValue);
-            Map.Entry<Double, ClassStat> lower = pointsMap.lowerEntry(attrValue);
+        protected void mergeSmallest() {
+            int idx = 0;
+            int minCount = Integer.MAX_VALUE;
+            for (int i = 0; i < size - 1; i++) {
+                int count = counts[i] + counts[i + 1];
+                if (count < minCount) {
+                    minCount = count;
+                    idx = i;
+                }
+            }
+            fold(idx);
+        }
 
-            assert(higher != null || lower != null);
+        /**
+         * Merge the bucket idx + 1 into the bucket idx.
+         */
+        protected void fold(int idx) {
+            values[idx] = values[idx + 1];
+            addEntry(idx, this, idx + 1);
+            remove(idx + 1);
+        }
 
-            if (higher == null) {
-                return lower;
-            } else if (lower == null) {
-                return higher;
-            } else { // higher != null && lower != null
-                double diffH = Math.abs(higher.getKey() - attrValue);
-                double diffL = Math.abs(lower.getKey() - attrValue);
-                if (diffH < diffL) {
-                    return higher;
-                } else if (diffH > diffL) {
-                    return lower;
-                } else { // diffH == diffL
-                    return higher;
+        /**
+         * Add the statistics of the entry j of the source to the bucket idx.
+         */
+        protected void addEntry(int idx, NumAttrData source, int j) {
+            counts[idx] += source.counts[j];
+            if (classCounts != null) {
+                for (int c = 0; c < numClasses; c++) {
+                    classCounts[idx * numClasses + c] += source.classCounts[j * numClasses + c];
                 }
+            } else {
+                sums[idx] += source.sums[j];
+                squaredSums[idx] += source.squaredSums[j];
+            }
+        }
+
+        @Override
+        protected void insert(int idx, double attrValue) {
+            if (size == lowers.length) {
+                lowers = Arrays.copyOf(lowers, Math.max(4, size * 2));
             }
+            System.arraycopy(lowers, idx, lowers, idx + 1, size - idx);
+            lowers[idx] = attrValue;
+            super.insert(idx, attrValue);
+        }
+
+        @Override
+        protected void remove(int idx) {
+            System.arraycopy(lowers, idx + 1, lowers, idx, size - idx - 1);
+            super.remove(idx);
         }
     }
 
@@ -202,17 +756,10 @@ public class NumAttrStat extends AttrStat implements Serializable {
         StringBuilder ret = new StringBuilder();
 
         /*
-        if (histogram != null) {
-            ret.append("Histogram data: ");
-            for (Map.Entry<Double, ClassStat> entry : histogram.pointsMap.entrySet()) {
-                ret.append(entry.getKey()).append(" -> ").append(entry.getValue().getCount()).append("\n");
-            }
-        }
-
         ret.append("Actual data: ");
-        ret.append("counts size = " + counts.size());
-        for (Map.Entry<Double, ClassStat> entry : counts.entrySet()) {
-            ret.append(entry.getKey()).append(" -> ").append(entry.getValue().getCount()).append("\n");
+        ret.append("counts size = " + data.size());
+        for (int i = 0; i < data.size(); i++) {
+            ret.append(data.values[i]).append(" -> ").append(data.counts[i]).append("\n");
         }*/
 
         return ret.toString();
@@ -10,6 +10,8 @@ public class Split {
     protected Attribute attr;
     protected double scv;
     protected double splitValue;
+    /** Values of a discrete attribute going to the first of two successors, null for one successor per value. */
+    protected boolean[] leftValues;
 
     public Split(Attribute attr, double scv, double splitValue) {
         this.attr = attr;
@@ -17,6 +19,11 @@ public class Split {
         this.splitValue = splitValue;
     }
 
+    public Split(Attribute attr, double scv, boolean[] leftValues) {
+        this(attr, scv, 0d);
+        this.leftValues = leftValues;
+    }
+
     public Attribute getAttr() {
         return attr;
     }
@@ -40,4 +47,12 @@ public class Split {
     public void setSplitValue(double splitValue) {
         this.splitValue = splitValue;
     }
+
+    public boolean[] getLeftValues() {
+        return leftValues;
+    }
+
+    public void setLeftValues(boolean[] leftValues) {
+        this.leftValues = leftValues;
+    }
 }
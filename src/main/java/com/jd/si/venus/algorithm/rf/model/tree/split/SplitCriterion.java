@@ -0,0 +1,54 @@
+package com.jd.si.venus.algorithm.rf.model.tree.split;
+
+
+import java.io.Serializable;
+
+/**
+ * Impurity criterion of the class distribution for classification splits.
+ *
+ * The impurity of a partition with class counts c_i and total n is written as
+ * impurity(sum(term(c_i)), n) / n, so that a sweep keeps the sums of the terms
+ * and updates only the classes an instance move changes.
+ */
+public abstract class SplitCriterion implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param count count of a class
+     * @return term of the class count
+     */
+    public abstract double term(int count);
+
+    /**
+     * @param terms sum of the terms of the class counts
+     * @param totalCount
+     * @return impurity of the class counts multiplied by totalCount
+     */
+    public abstract double weightedImpurity(double terms, int totalCount);
+
+    /**
+     * @param numClasses
+     * @return range of the impurity, R in the Hoeffding bound
+     */
+    public abstract double getRange(int numClasses);
+
+    /**
+     * @param classCounts
+     * @param offset index of the first class count
+     * @param length number of class counts
+     * @param totalCount
+     * @return impurity of the class counts classCounts[offset, offset + length)
+     */
+    public double getImpurity(int[] classCounts, int offset, int length, int totalCount) {
+        if (totalCount <= 0) {
+            return 0d;
+        }
+
+        double terms = 0d;
+        for (int i = offset; i < offset + length; i++) {
+            terms += term(classCounts[i]);
+        }
+
+        return weightedImpurity(terms, totalCount) / totalCount;
+    }
+}
@@ -6,8 +6,40 @@ package com.jd.si.venus.algorithm.rf.model.util;
  */
 public class Utils {
 	public static final double LOG2 = Math.log(2d);
+
+	private static final int N_LOG2_N_SIZE = 8192;
+	private static final double[] N_LOG2_N = new double[N_LOG2_N_SIZE];
+
+	static {
+		for (int n = 1; n < N_LOG2_N_SIZE; n++) {
+			N_LOG2_N[n] = n * log2(n);
+		}
+	}
 	
 	public static double log2(double p) {
 		return Math.log(p) / LOG2;
 	}
+
+	/**
+	 * @return n * log2(n), 0 for n <= 0, looked up for small n
+	 */
+	public static double nLog2n(int n) {
+		if (n < N_LOG2_N_SIZE) {
+			return n <= 0 ? 0d : N_LOG2_N[n];
+		}
+		return n * log2(n);
+	}
+
+	/**
+	 * Cumulative distribution function of the standard normal distribution,
+	 * see formula 7.1.26 in "Handbook of Mathematical Functions" for erf.
+	 */
+	public static double normalCdf(double x) {
+		double z = Math.abs(x) / Math.sqrt(2d);
+		double t = 1d / (1d + 0.3275911 * z);
+		double erf = 1d - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 +
+				t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-z * z);
+
+		return x >= 0 ? 0.5 * (1d + erf) : 0.5 * (1d - erf);
+	}
 }